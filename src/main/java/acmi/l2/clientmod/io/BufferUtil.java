@@ -55,11 +55,24 @@ public class BufferUtil {
     }
 
     public static int getCompactInt(ByteBuffer input) throws BufferUnderflowException {
-        return ByteUtil.compactIntFromBytes(() -> input.get() & 0xFF);
+        int position = input.position();
+        if (input.remaining() < ByteUtil.MAX_COMPACT_INT_SIZE) {
+            return ByteUtil.compactIntFromBytes(() -> input.get() & 0xFF);
+        }
+
+        int val = ByteUtil.getCompactInt(input, position);
+        input.position(position + ByteUtil.compactIntLength(input, position));
+        return val;
     }
 
     public static void putCompactInt(ByteBuffer buffer, int v) throws BufferOverflowException, ReadOnlyBufferException {
-        buffer.put(compactIntToByteArray(v));
+        if (buffer.remaining() < ByteUtil.MAX_COMPACT_INT_SIZE) {
+            buffer.put(compactIntToByteArray(v));
+            return;
+        }
+
+        int position = buffer.position();
+        buffer.position(position + ByteUtil.putCompactInt(buffer, position, v));
     }
 
     public static String getString(ByteBuffer buffer) {
@@ -118,7 +131,7 @@ public class BufferUtil {
             putCompactInt(buffer, 0);
         } else {
             byte[] strBytes = (str + '\0').getBytes(UTF_16LE);
-            putCompactInt(buffer, -strBytes.length);
+            putCompactInt(buffer, -strBytes.length / 2);
             buffer.put(strBytes);
         }
     }
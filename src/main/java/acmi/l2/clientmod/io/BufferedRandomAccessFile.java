@@ -24,13 +24,26 @@ package acmi.l2.clientmod.io;
 import java.io.File;
 import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class BufferedRandomAccessFile implements RandomAccess {
     private final RandomAccessMemory memory;
     private final RandomAccessFile file;
     private final boolean readOnly;
+    private final Transaction transaction;
 
     public BufferedRandomAccessFile(File f, boolean readOnly, Charset charset) {
+        this(f, readOnly, charset, false);
+    }
+
+    /**
+     * @param deferWrites if {@code true} writes are applied in memory only,
+     *                    call {@link #commit()} to persist them or {@link #rollback()} to discard,
+     *                    uncommitted changes are discarded on {@link #close()}
+     */
+    public BufferedRandomAccessFile(File f, boolean readOnly, Charset charset, boolean deferWrites) {
         String name = f.getName().substring(0, f.getName().lastIndexOf('.'));
         this.readOnly = readOnly;
 
@@ -40,16 +53,18 @@ public class BufferedRandomAccessFile implements RandomAccess {
         file.setPosition(0);
 
         memory = new RandomAccessMemory(name, data, charset);
+        transaction = deferWrites && !readOnly ? new Transaction(data.length) : null;
 
         if (readOnly) {
             file.close();
         }
     }
 
-    private BufferedRandomAccessFile(RandomAccessMemory memory, RandomAccessFile file, boolean readOnly) {
+    private BufferedRandomAccessFile(RandomAccessMemory memory, RandomAccessFile file, boolean readOnly, Transaction transaction) {
         this.memory = memory;
         this.file = file;
         this.readOnly = readOnly;
+        this.transaction = transaction;
     }
 
     @Override
@@ -69,28 +84,114 @@ public class BufferedRandomAccessFile implements RandomAccess {
 
     @Override
     public void setPosition(int position) throws UncheckedIOException {
-        if (!readOnly) {
+        if (isWriteThrough()) {
             file.setPosition(position);
         }
         memory.setPosition(position);
     }
 
+    public int length() {
+        return memory.length();
+    }
+
     @Override
     public void trimToPosition() throws UncheckedIOException {
-        if (!readOnly) {
+        if (isWriteThrough()) {
             file.trimToPosition();
+        } else if (isDeferred()) {
+            transaction.add(memory.getPosition(), memory.length());
         }
         memory.trimToPosition();
     }
 
+    @Override
+    public void flush() throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.flush();
+        }
+    }
+
+    public boolean hasUncommittedChanges() {
+        return isDeferred() && (!transaction.isEmpty() || transaction.length != memory.length());
+    }
+
+    /**
+     * Writes changed regions to the file.
+     */
+    public void commit() throws UncheckedIOException {
+        if (!isDeferred()) {
+            return;
+        }
+
+        int position = memory.getPosition();
+        int length = memory.length();
+        if (length > transaction.length) {
+            transaction.add(transaction.length, length);
+        }
+        for (Map.Entry<Integer, Integer> range : transaction.ranges()) {
+            int start = range.getKey();
+            int end = Math.min(range.getValue(), length);
+            if (start < end) {
+                file.setPosition(start);
+                memory.writeTo(file, start, end - start);
+            }
+        }
+        if (length < transaction.length) {
+            file.setPosition(length);
+            file.trimToPosition();
+        }
+        file.flush();
+
+        transaction.clear(length);
+        memory.setPosition(position);
+    }
+
+    /**
+     * Discards uncommitted changes, data is restored from the file.
+     */
+    public void rollback() throws UncheckedIOException {
+        if (!isDeferred()) {
+            return;
+        }
+
+        int position = memory.getPosition();
+        memory.setPosition(transaction.length);
+        memory.trimToPosition();
+
+        byte[] chunk = new byte[1 << 16];
+        for (Map.Entry<Integer, Integer> range : transaction.ranges()) {
+            int start = range.getKey();
+            int end = Math.min(range.getValue(), transaction.length);
+            file.setPosition(start);
+            memory.setPosition(start);
+            while (start < end) {
+                int n = Math.min(end - start, chunk.length);
+                file.readFully(chunk, 0, n);
+                memory.writeBytes(chunk, 0, n);
+                start += n;
+            }
+        }
+
+        transaction.clear(transaction.length);
+        memory.setPosition(Math.min(position, transaction.length));
+    }
+
+    private boolean isDeferred() {
+        return !readOnly && transaction != null;
+    }
+
+    private boolean isWriteThrough() {
+        return !readOnly && transaction == null;
+    }
+
     @Override
     public RandomAccess openNewSession(boolean readOnly) throws UncheckedIOException {
         if (this.readOnly == readOnly) {
             return this;
         } else if (readOnly) {
-            return new BufferedRandomAccessFile(memory, file, true);
+            return new BufferedRandomAccessFile(memory, file, true, transaction);
         } else {
-            return new BufferedRandomAccessFile(memory, file.openNewSession(false), false);
+            return new BufferedRandomAccessFile(memory, file.openNewSession(false), false, transaction);
         }
     }
 
@@ -112,19 +213,234 @@ public class BufferedRandomAccessFile implements RandomAccess {
         memory.readFully(b, off, len);
     }
 
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        return memory.readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        return memory.readInt();
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        return memory.readCompactInt();
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        return memory.readLong();
+    }
+
+    @Override
+    public float readFloat() throws UncheckedIOException {
+        return memory.readFloat();
+    }
+
+    @Override
+    public void readShorts(short[] dst, int off, int len) throws UncheckedIOException {
+        memory.readShorts(dst, off, len);
+    }
+
+    @Override
+    public void readInts(int[] dst, int off, int len) throws UncheckedIOException {
+        memory.readInts(dst, off, len);
+    }
+
+    @Override
+    public void readFloats(float[] dst, int off, int len) throws UncheckedIOException {
+        memory.readFloats(dst, off, len);
+    }
+
+    @Override
+    public void readCompactInts(int[] dst, int off, int len) throws UncheckedIOException {
+        memory.readCompactInts(dst, off, len);
+    }
+
+    @Override
+    public void skip(int n) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.skip(n);
+        }
+        memory.skip(n);
+    }
+
     @Override
     public void writeByte(int b) throws UncheckedIOException {
-        if (!readOnly) {
+        if (isWriteThrough()) {
             file.writeByte(b);
+        } else if (isDeferred()) {
+            transaction.add(memory.getPosition(), memory.getPosition() + 1);
         }
         memory.writeByte(b);
     }
 
     @Override
     public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
-        if (!readOnly) {
+        if (isWriteThrough()) {
             file.writeBytes(b, off, len);
+        } else if (isDeferred()) {
+            transaction.add(memory.getPosition(), memory.getPosition() + len);
         }
         memory.writeBytes(b, off, len);
     }
+
+    @Override
+    public void writeShort(int val) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeShort(val);
+        } else if (isDeferred()) {
+            transaction.add(memory.getPosition(), memory.getPosition() + 2);
+        }
+        memory.writeShort(val);
+    }
+
+    @Override
+    public void writeInt(int val) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeInt(val);
+        } else if (isDeferred()) {
+            transaction.add(memory.getPosition(), memory.getPosition() + 4);
+        }
+        memory.writeInt(val);
+    }
+
+    @Override
+    public void writeCompactInt(int val) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeCompactInt(val);
+        } else if (isDeferred()) {
+            transaction.add(memory.getPosition(), memory.getPosition() + ByteUtil.sizeOfCompactInt(val));
+        }
+        memory.writeCompactInt(val);
+    }
+
+    @Override
+    public void writeLong(long val) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeLong(val);
+        } else if (isDeferred()) {
+            transaction.add(memory.getPosition(), memory.getPosition() + 8);
+        }
+        memory.writeLong(val);
+    }
+
+    @Override
+    public void writeShorts(short[] src, int off, int len) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeShorts(src, off, len);
+        }
+        int start = memory.getPosition();
+        memory.writeShorts(src, off, len);
+        if (isDeferred()) {
+            transaction.add(start, memory.getPosition());
+        }
+    }
+
+    @Override
+    public void writeInts(int[] src, int off, int len) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeInts(src, off, len);
+        }
+        int start = memory.getPosition();
+        memory.writeInts(src, off, len);
+        if (isDeferred()) {
+            transaction.add(start, memory.getPosition());
+        }
+    }
+
+    @Override
+    public void writeFloats(float[] src, int off, int len) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeFloats(src, off, len);
+        }
+        int start = memory.getPosition();
+        memory.writeFloats(src, off, len);
+        if (isDeferred()) {
+            transaction.add(start, memory.getPosition());
+        }
+    }
+
+    @Override
+    public void writeCompactInts(int[] src, int off, int len) throws UncheckedIOException {
+        if (isWriteThrough()) {
+            file.writeCompactInts(src, off, len);
+        }
+        int start = memory.getPosition();
+        memory.writeCompactInts(src, off, len);
+        if (isDeferred()) {
+            transaction.add(start, memory.getPosition());
+        }
+    }
+
+    private static final class Transaction {
+        private final TreeMap<Integer, Integer> dirty = new TreeMap<>();
+        private int lastStart = -1;
+        private int lastEnd = -1;
+
+        private int length;
+
+        Transaction(int length) {
+            this.length = length;
+        }
+
+        void add(int start, int end) {
+            if (start >= end) {
+                return;
+            }
+            if (start == lastEnd) {
+                lastEnd = end;
+                return;
+            }
+            if (start >= lastStart && end <= lastEnd) {
+                return;
+            }
+
+            mergeLast();
+            lastStart = start;
+            lastEnd = end;
+        }
+
+        private void mergeLast() {
+            if (lastStart < 0) {
+                return;
+            }
+
+            int start = lastStart;
+            int end = lastEnd;
+            lastStart = lastEnd = -1;
+
+            Map.Entry<Integer, Integer> floor = dirty.floorEntry(start);
+            if (floor != null && floor.getValue() >= start) {
+                start = floor.getKey();
+                end = Math.max(end, floor.getValue());
+            }
+            Iterator<Map.Entry<Integer, Integer>> it = dirty.tailMap(start, true).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Integer> range = it.next();
+                if (range.getKey() > end) {
+                    break;
+                }
+                end = Math.max(end, range.getValue());
+                it.remove();
+            }
+            dirty.put(start, end);
+        }
+
+        Iterable<Map.Entry<Integer, Integer>> ranges() {
+            mergeLast();
+            return dirty.entrySet();
+        }
+
+        boolean isEmpty() {
+            return lastStart < 0 && dirty.isEmpty();
+        }
+
+        void clear(int length) {
+            dirty.clear();
+            lastStart = lastEnd = -1;
+            this.length = length;
+        }
+    }
 }
@@ -27,78 +27,196 @@ import java.util.UUID;
 import java.util.function.IntSupplier;
 
 public class ByteUtil {
+    /**
+     * Maximum number of bytes in a compact int.
+     */
+    public static final int MAX_COMPACT_INT_SIZE = 5;
+
     public static byte[] compactIntToByteArray(int v) {
-        boolean negative = v < 0;
-        v = Math.abs(v);
         byte[] bytes = new byte[sizeOfCompactInt(v)];
+        putCompactInt(bytes, 0, v);
+        return bytes;
+    }
+
+    public static int sizeOfCompactInt(int i) {
+        // Integer.MIN_VALUE is encoded as negative zero
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.abs(i) & Integer.MAX_VALUE);
+        return 1 + bits / 7;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public static int putCompactInt(byte[] b, int off, int v) {
+        int sign = v < 0 ? 0x80 : 0;
+        v = Math.abs(v) & Integer.MAX_VALUE;
+        if (v < 0x40) {
+            b[off] = (byte) (sign | v);
+            return 1;
+        }
+
+        b[off] = (byte) (sign | 0x40 | (v & 0x3f));
+        v >>>= 6;
+        int i = 1;
+        for (; v >= 0x80; v >>>= 7) {
+            b[off + i++] = (byte) (0x80 | (v & 0x7f));
+        }
+        b[off + i++] = (byte) v;
+        return i;
+    }
 
-        if (negative) {
-            bytes[0] |= 0b10000000;
+    /**
+     * Writes compact int at absolute {@code index}, buffer position is not changed.
+     *
+     * @return number of bytes written
+     */
+    public static int putCompactInt(ByteBuffer buffer, int index, int v) {
+        int sign = v < 0 ? 0x80 : 0;
+        v = Math.abs(v) & Integer.MAX_VALUE;
+        if (v < 0x40) {
+            buffer.put(index, (byte) (sign | v));
+            return 1;
         }
 
-        bytes[0] |= v & 0b00111111;
-        v >>= 6;
+        buffer.put(index, (byte) (sign | 0x40 | (v & 0x3f)));
+        v >>>= 6;
+        int i = 1;
+        for (; v >= 0x80; v >>>= 7) {
+            buffer.put(index + i++, (byte) (0x80 | (v & 0x7f)));
+        }
+        buffer.put(index + i++, (byte) v);
+        return i;
+    }
 
-        if (v > 0) {
-            bytes[0] |= 0b01000000;
-            for (int i = 1; i < bytes.length; i++) {
-                if (i != bytes.length - 1) {
-                    bytes[i] |= 0b10000000;
+    public static int getCompactInt(byte[] b, int off) {
+        int x = b[off];
+        int output = x & 0x3f;
+        if ((x & 0x40) != 0) {
+            int y = b[off + 1];
+            output |= (y & 0x7f) << 6;
+            if (y < 0) {
+                y = b[off + 2];
+                output |= (y & 0x7f) << 13;
+                if (y < 0) {
+                    y = b[off + 3];
+                    output |= (y & 0x7f) << 20;
+                    if (y < 0) {
+                        output |= (b[off + 4] & 0x1f) << 27;
+                    }
                 }
-                bytes[i] |= v & 0b01111111;
-                v >>= 7;
             }
         }
-        return bytes;
+        return sign(x, output);
     }
 
-    public static int sizeOfCompactInt(int i) {
-        i = Math.abs(i);
-
-        if (i >= 1 << (6 + 7 + 7 + 7)) {
-            return 5;
-        } else if (i >= 1 << (6 + 7 + 7)) {
-            return 4;
-        } else if (i >= 1 << (6 + 7)) {
-            return 3;
-        } else if (i >= 1 << (6)) {
-            return 2;
-        } else {
+    /**
+     * Reads compact int at absolute {@code index}, buffer position is not changed.
+     */
+    public static int getCompactInt(ByteBuffer buffer, int index) {
+        int x = buffer.get(index);
+        int output = x & 0x3f;
+        if ((x & 0x40) != 0) {
+            int y = buffer.get(index + 1);
+            output |= (y & 0x7f) << 6;
+            if (y < 0) {
+                y = buffer.get(index + 2);
+                output |= (y & 0x7f) << 13;
+                if (y < 0) {
+                    y = buffer.get(index + 3);
+                    output |= (y & 0x7f) << 20;
+                    if (y < 0) {
+                        output |= (buffer.get(index + 4) & 0x1f) << 27;
+                    }
+                }
+            }
+        }
+        return sign(x, output);
+    }
+
+    /**
+     * @return number of bytes occupied by compact int starting at {@code off}
+     */
+    public static int compactIntLength(byte[] b, int off) {
+        if ((b[off] & 0x40) == 0) {
+            return 1;
+        }
+        int i = 1;
+        while (i < MAX_COMPACT_INT_SIZE - 1 && b[off + i] < 0) {
+            i++;
+        }
+        return i + 1;
+    }
+
+    public static int compactIntLength(ByteBuffer buffer, int index) {
+        if ((buffer.get(index) & 0x40) == 0) {
             return 1;
         }
+        int i = 1;
+        while (i < MAX_COMPACT_INT_SIZE - 1 && buffer.get(index + i) < 0) {
+            i++;
+        }
+        return i + 1;
     }
 
     public static int compactIntFromBytes(IntSupplier unsignedByteSupplier) {
-        int output = 0;
-        boolean signed = false;
-        for (int i = 0; i < 5; i++) {
-            int x = unsignedByteSupplier.getAsInt();
-            if (i == 0) {
-                if ((x & 0x80) > 0) {
-                    signed = true;
-                }
-                output |= (x & 0x3F);
-                if ((x & 0x40) == 0) {
-                    break;
-                }
-            } else if (i == 4) {
-                output |= (x & 0x1F) << (6 + (3 * 7));
-            } else {
-                output |= (x & 0x7F) << (6 + ((i - 1) * 7));
-                if ((x & 0x80) == 0) {
-                    break;
+        int x = unsignedByteSupplier.getAsInt();
+        int output = x & 0x3f;
+        if ((x & 0x40) != 0) {
+            for (int shift = 6; shift < 27; shift += 7) {
+                int y = unsignedByteSupplier.getAsInt();
+                output |= (y & 0x7f) << shift;
+                if ((y & 0x80) == 0) {
+                    return sign(x, output);
                 }
             }
+            output |= (unsignedByteSupplier.getAsInt() & 0x1f) << 27;
         }
-        if (signed) {
-            if (output == 0) {
-                return Integer.MIN_VALUE;
-            } else {
-                return -output;
-            }
-        } else {
-            return output;
+        return sign(x, output);
+    }
+
+    static void checkBounds(int arrayLength, int off, int len) {
+        if ((off | len | (arrayLength - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    static int sign(int firstByte, int magnitude) {
+        if ((firstByte & 0x80) == 0) {
+            return magnitude;
         }
+        return magnitude == 0 ? Integer.MIN_VALUE : -magnitude;
+    }
+
+    public static int getUnsignedShort(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    public static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) |
+                ((b[off + 1] & 0xff) << 8) |
+                ((b[off + 2] & 0xff) << 16) |
+                ((b[off + 3]) << 24);
+    }
+
+    public static long getLong(byte[] b, int off) {
+        return (getInt(b, off) & 0xffffffffL) | ((long) getInt(b, off + 4) << 32);
+    }
+
+    public static void putShort(byte[] b, int off, int val) {
+        b[off] = (byte) val;
+        b[off + 1] = (byte) (val >>> 8);
+    }
+
+    public static void putInt(byte[] b, int off, int val) {
+        b[off] = (byte) val;
+        b[off + 1] = (byte) (val >>> 8);
+        b[off + 2] = (byte) (val >>> 16);
+        b[off + 3] = (byte) (val >>> 24);
+    }
+
+    public static void putLong(byte[] b, int off, long val) {
+        putInt(b, off, (int) val);
+        putInt(b, off + 4, (int) (val >>> 32));
     }
 
     public static UUID uuidFromBytes(byte[] uuidBytes) {
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Page cache over any {@link RandomAccess}.
+ * <p>
+ * Data is read from the underlying {@link RandomAccess} in fixed size pages, already decrypted,
+ * and the last {@code maxPages} used pages are kept in memory. Writes go through to the underlying
+ * {@link RandomAccess} and update cached pages. Positions are the ones of the underlying
+ * {@link RandomAccess}. Data length is passed on creation, since {@link RandomAccess} doesn't expose it,
+ * and is tracked by the cache afterwards.
+ */
+public class CachedRandomAccess implements RandomAccess {
+    public static final int DEFAULT_PAGE_SIZE = 1 << 16;
+    public static final int DEFAULT_MAX_PAGES = 64;
+
+    private final RandomAccess randomAccess;
+    private final int pageSize;
+    private final int pageShift;
+    private final int maxPages;
+    private final Map<Integer, byte[]> pages;
+
+    private int length;
+    private int position;
+
+    private int currentPageIndex = -1;
+    private byte[] currentPage;
+
+    private final byte[] scratch = new byte[8];
+
+    /**
+     * @param length data length of {@code randomAccess}
+     */
+    public CachedRandomAccess(RandomAccess randomAccess, int length) throws UncheckedIOException {
+        this(randomAccess, length, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param length data length of {@code randomAccess}
+     */
+    public CachedRandomAccess(RandomAccess randomAccess, int length, int pageSize, int maxPages) throws UncheckedIOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length: " + length);
+        }
+        if (pageSize <= 0 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two: " + pageSize);
+        }
+        if (maxPages <= 0) {
+            throw new IllegalArgumentException("Invalid page count: " + maxPages);
+        }
+
+        this.randomAccess = randomAccess;
+        this.pageSize = pageSize;
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.maxPages = maxPages;
+        this.pages = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > CachedRandomAccess.this.maxPages;
+            }
+        };
+        this.length = length;
+        this.position = randomAccess.getPosition();
+    }
+
+    public RandomAccess getRandomAccess() {
+        return randomAccess;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    @Override
+    public String getName() {
+        return randomAccess.getName();
+    }
+
+    @Override
+    public Charset getCharset() {
+        return randomAccess.getCharset();
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+
+        this.position = position;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void trimToPosition() throws UncheckedIOException {
+        randomAccess.setPosition(position);
+        randomAccess.trimToPosition();
+        length = position;
+
+        int firstInvalid = position >> pageShift;
+        pages.keySet().removeIf(index -> index >= firstInvalid);
+        if (currentPageIndex >= firstInvalid) {
+            currentPageIndex = -1;
+            currentPage = null;
+        }
+    }
+
+    @Override
+    public void skip(int n) throws UncheckedIOException {
+        setPosition(position + n);
+    }
+
+    private byte[] page(int index) throws UncheckedIOException {
+        if (index == currentPageIndex) {
+            return currentPage;
+        }
+
+        byte[] page = pages.get(index);
+        if (page == null) {
+            page = new byte[pageSize];
+            int pageStart = index << pageShift;
+            randomAccess.setPosition(pageStart);
+            randomAccess.readFully(page, 0, Math.min(pageSize, length - pageStart));
+            pages.put(index, page);
+        }
+
+        currentPageIndex = index;
+        currentPage = page;
+        return page;
+    }
+
+    @Override
+    public int readUnsignedByte() throws UncheckedIOException {
+        if (position >= length) {
+            throw new UncheckedIOException(new EOFException());
+        }
+
+        int b = page(position >> pageShift)[position & (pageSize - 1)] & 0xff;
+        position++;
+        return b;
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return;
+        }
+
+        if (position > length - len) {
+            throw new UncheckedIOException(new EOFException());
+        }
+
+        while (len > 0) {
+            int pageOffset = position & (pageSize - 1);
+            int n = Math.min(len, pageSize - pageOffset);
+            System.arraycopy(page(position >> pageShift), pageOffset, b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private boolean inPage(int n) {
+        return position <= length - n && (position & (pageSize - 1)) <= pageSize - n;
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        if (!inPage(2)) {
+            return RandomAccess.super.readUnsignedShort();
+        }
+
+        int val = ByteUtil.getUnsignedShort(page(position >> pageShift), position & (pageSize - 1));
+        position += 2;
+        return val;
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        if (!inPage(4)) {
+            return RandomAccess.super.readInt();
+        }
+
+        int val = ByteUtil.getInt(page(position >> pageShift), position & (pageSize - 1));
+        position += 4;
+        return val;
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        if (!inPage(8)) {
+            return RandomAccess.super.readLong();
+        }
+
+        long val = ByteUtil.getLong(page(position >> pageShift), position & (pageSize - 1));
+        position += 8;
+        return val;
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        if (!inPage(ByteUtil.MAX_COMPACT_INT_SIZE)) {
+            return RandomAccess.super.readCompactInt();
+        }
+
+        byte[] page = page(position >> pageShift);
+        int offset = position & (pageSize - 1);
+        int val = ByteUtil.getCompactInt(page, offset);
+        position += ByteUtil.compactIntLength(page, offset);
+        return val;
+    }
+
+    @Override
+    public void writeCompactInt(int val) throws UncheckedIOException {
+        writeBytes(scratch, 0, ByteUtil.putCompactInt(scratch, 0, val));
+    }
+
+    @Override
+    public void writeShort(int val) throws UncheckedIOException {
+        ByteUtil.putShort(scratch, 0, val);
+        writeBytes(scratch, 0, 2);
+    }
+
+    @Override
+    public void writeInt(int val) throws UncheckedIOException {
+        ByteUtil.putInt(scratch, 0, val);
+        writeBytes(scratch, 0, 4);
+    }
+
+    @Override
+    public void writeLong(long val) throws UncheckedIOException {
+        ByteUtil.putLong(scratch, 0, val);
+        writeBytes(scratch, 0, 8);
+    }
+
+    @Override
+    public void writeByte(int b) throws UncheckedIOException {
+        randomAccess.setPosition(position);
+        randomAccess.writeByte(b);
+
+        byte[] page = cachedPage(position >> pageShift);
+        if (page != null) {
+            page[position & (pageSize - 1)] = (byte) b;
+        }
+        position++;
+        length = Math.max(length, position);
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        randomAccess.setPosition(position);
+        randomAccess.writeBytes(b, off, len);
+
+        while (len > 0) {
+            int pageOffset = position & (pageSize - 1);
+            int n = Math.min(len, pageSize - pageOffset);
+            byte[] page = cachedPage(position >> pageShift);
+            if (page != null) {
+                System.arraycopy(b, off, page, pageOffset, n);
+            }
+            position += n;
+            off += n;
+            len -= n;
+        }
+        length = Math.max(length, position);
+    }
+
+    private byte[] cachedPage(int index) {
+        return index == currentPageIndex ? currentPage : pages.get(index);
+    }
+
+    @Override
+    public void flush() throws UncheckedIOException {
+        randomAccess.flush();
+    }
+
+    @Override
+    public RandomAccess openNewSession(boolean readOnly) throws UncheckedIOException {
+        return new CachedRandomAccess(randomAccess.openNewSession(readOnly), length, pageSize, maxPages);
+    }
+
+    @Override
+    public void close() throws UncheckedIOException {
+        pages.clear();
+        currentPageIndex = -1;
+        currentPage = null;
+
+        randomAccess.close();
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * {@link RandomAccess} that can be shared between threads.
+ * <p>
+ * Every thread has its own position and read-ahead buffer, all I/O is done with positional
+ * {@link FileChannel} calls, so one opened package can serve
+ * {@link UnrealPackage.ExportEntry#getObjectRawData()} from many threads at once.
+ * Read only sessions opened with {@link #openNewSession(boolean)} share the same channel.
+ * <p>
+ * Note: interrupting a thread blocked in I/O closes the channel for all threads.
+ */
+public class ConcurrentRandomAccessFile implements RandomAccess {
+    private static final int READ_AHEAD_SIZE = 1 << 13;
+
+    private final SharedChannel shared;
+    private final boolean readOnly;
+    private final Charset charset;
+    private final ThreadLocal<Cursor> cursor = ThreadLocal.withInitial(Cursor::new);
+    private boolean closed;
+
+    public ConcurrentRandomAccessFile(File f, boolean readOnly, Charset charset) throws UncheckedIOException {
+        try {
+            this.shared = new SharedChannel(f, readOnly);
+            this.readOnly = readOnly;
+            this.charset = charset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public ConcurrentRandomAccessFile(String path, boolean readOnly, Charset charset) throws UncheckedIOException {
+        this(new File(path), readOnly, charset);
+    }
+
+    private ConcurrentRandomAccessFile(SharedChannel shared, boolean readOnly, Charset charset) {
+        this.shared = shared;
+        this.readOnly = readOnly;
+        this.charset = charset;
+    }
+
+    @Override
+    public String getName() {
+        return shared.packageName;
+    }
+
+    public String getPath() {
+        return shared.path;
+    }
+
+    public int getCryptVersion() {
+        return shared.cryptVer;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int getPosition() {
+        return cursor.get().position;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+
+        cursor.get().position = position;
+    }
+
+    public int length() throws UncheckedIOException {
+        try {
+            return (int) shared.channel.size() - shared.startOffset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void trimToPosition() throws UncheckedIOException {
+        try {
+            shared.channel.truncate((long) shared.startOffset + getPosition());
+            shared.modCount.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void skip(int n) throws UncheckedIOException {
+        setPosition(getPosition() + n);
+    }
+
+    @Override
+    public int readUnsignedByte() throws UncheckedIOException {
+        Cursor c = cursor.get();
+        int index = c.position - c.readAheadPosition;
+        if (index < 0 || index >= c.readAheadLength || c.modCount != shared.modCount.get()) {
+            fillReadAhead(c);
+            index = 0;
+        }
+        c.position++;
+        return c.readAhead[index] & 0xff;
+    }
+
+    private void fillReadAhead(Cursor c) throws UncheckedIOException {
+        c.modCount = shared.modCount.get();
+        c.readAheadPosition = c.position;
+        c.readAheadLength = read(c.position, c.readAhead, 0, c.readAhead.length);
+        if (c.readAheadLength <= 0) {
+            c.readAheadLength = 0;
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return;
+        }
+
+        Cursor c = cursor.get();
+        int index = c.position - c.readAheadPosition;
+        if (index >= 0 && index + len <= c.readAheadLength && c.modCount == shared.modCount.get()) {
+            System.arraycopy(c.readAhead, index, b, off, len);
+        } else if (read(c.position, b, off, len) != len) {
+            throw new UncheckedIOException(new EOFException());
+        }
+        c.position += len;
+    }
+
+    /**
+     * Reads and decodes data at the given position without touching the current position.
+     *
+     * @return number of bytes read, less than {@code len} only at the end of file
+     */
+    public int read(int position, byte[] b, int off, int len) throws UncheckedIOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                if (shared.channel.read(buffer, (long) shared.startOffset + position + (buffer.position() - off)) < 0) {
+                    break;
+                }
+            }
+            int read = buffer.position() - off;
+            shared.codec.apply(b, off, read);
+            return read;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int readAheadIndex(Cursor c, int n) {
+        int index = c.position - c.readAheadPosition;
+        if (index < 0 || index > c.readAheadLength - n || c.modCount != shared.modCount.get()) {
+            return -1;
+        }
+        return index;
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        Cursor c = cursor.get();
+        int index = readAheadIndex(c, 2);
+        if (index < 0) {
+            return RandomAccess.super.readUnsignedShort();
+        }
+        c.position += 2;
+        return ByteUtil.getUnsignedShort(c.readAhead, index);
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        Cursor c = cursor.get();
+        int index = readAheadIndex(c, 4);
+        if (index < 0) {
+            return RandomAccess.super.readInt();
+        }
+        c.position += 4;
+        return ByteUtil.getInt(c.readAhead, index);
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        Cursor c = cursor.get();
+        int index = readAheadIndex(c, 8);
+        if (index < 0) {
+            return RandomAccess.super.readLong();
+        }
+        c.position += 8;
+        return ByteUtil.getLong(c.readAhead, index);
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        Cursor c = cursor.get();
+        int index = readAheadIndex(c, ByteUtil.MAX_COMPACT_INT_SIZE);
+        if (index < 0) {
+            return RandomAccess.super.readCompactInt();
+        }
+        c.position += ByteUtil.compactIntLength(c.readAhead, index);
+        return ByteUtil.getCompactInt(c.readAhead, index);
+    }
+
+    @Override
+    public void writeCompactInt(int val) throws UncheckedIOException {
+        Cursor c = cursor.get();
+        write(c, c.writeBuffer, 0, ByteUtil.putCompactInt(c.writeBuffer, 0, val));
+    }
+
+    @Override
+    public void writeShort(int val) throws UncheckedIOException {
+        Cursor c = cursor.get();
+        ByteUtil.putShort(c.writeBuffer, 0, val);
+        write(c, c.writeBuffer, 0, 2);
+    }
+
+    @Override
+    public void writeInt(int val) throws UncheckedIOException {
+        Cursor c = cursor.get();
+        ByteUtil.putInt(c.writeBuffer, 0, val);
+        write(c, c.writeBuffer, 0, 4);
+    }
+
+    @Override
+    public void writeLong(long val) throws UncheckedIOException {
+        Cursor c = cursor.get();
+        ByteUtil.putLong(c.writeBuffer, 0, val);
+        write(c, c.writeBuffer, 0, 8);
+    }
+
+    @Override
+    public void writeByte(int b) throws UncheckedIOException {
+        Cursor c = cursor.get();
+        c.writeBuffer[0] = (byte) b;
+        write(c, c.writeBuffer, 0, 1);
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        write(cursor.get(), b, off, len);
+    }
+
+    private void write(Cursor c, byte[] b, int off, int len) throws UncheckedIOException {
+        if (readOnly) {
+            throw new UncheckedIOException(new IOException("File is opened in read only mode"));
+        }
+
+        try {
+            while (len > 0) {
+                int chunk = Math.min(len, c.writeBuffer.length);
+                if (b != c.writeBuffer) {
+                    System.arraycopy(b, off, c.writeBuffer, 0, chunk);
+                }
+                shared.codec.apply(c.writeBuffer, 0, chunk);
+                ByteBuffer buffer = ByteBuffer.wrap(c.writeBuffer, 0, chunk);
+                while (buffer.hasRemaining()) {
+                    shared.channel.write(buffer, (long) shared.startOffset + c.position + buffer.position());
+                }
+                c.position += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+            shared.modCount.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public ConcurrentRandomAccessFile openNewSession(boolean readOnly) throws UncheckedIOException {
+        if (readOnly || !this.readOnly) {
+            shared.refCount.incrementAndGet();
+            return new ConcurrentRandomAccessFile(shared, readOnly, charset);
+        }
+
+        return new ConcurrentRandomAccessFile(getPath(), false, charset);
+    }
+
+    @Override
+    public synchronized void close() throws UncheckedIOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (shared.refCount.decrementAndGet() == 0) {
+            try {
+                shared.channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class SharedChannel {
+        final FileChannel channel;
+        final String packageName;
+        final String path;
+
+        final int cryptVer;
+        final CryptCodec codec;
+        final int startOffset;
+
+        final AtomicInteger refCount = new AtomicInteger(1);
+        final AtomicInteger modCount = new AtomicInteger();
+
+        SharedChannel(File f, boolean readOnly) throws IOException {
+            channel = readOnly ? FileChannel.open(f.toPath(), READ) : FileChannel.open(f.toPath(), READ, WRITE);
+            packageName = f.getName().substring(0, f.getName().lastIndexOf('.'));
+            path = f.getPath();
+
+            try {
+                String l2CryptHeader;
+                if (channel.size() >= 28 && (l2CryptHeader = RandomAccessFile.getCryptHeader(channel)).startsWith("Lineage2Ver")) {
+                    startOffset = 28;
+                    cryptVer = Integer.parseInt(l2CryptHeader.substring(11));
+                    codec = CryptCodec.of(cryptVer, f.getName());
+                } else {
+                    startOffset = 0;
+                    cryptVer = 0;
+                    codec = CryptCodec.NONE;
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    private static final class Cursor {
+        int position;
+
+        final byte[] readAhead = new byte[READ_AHEAD_SIZE];
+        int readAheadPosition;
+        int readAheadLength;
+        int modCount;
+
+        final byte[] writeBuffer = new byte[READ_AHEAD_SIZE];
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * XOR transform used by Lineage2Ver111 and Lineage2Ver121 files.
+ * <p>
+ * Every byte of the stream is XOR-ed with the same key byte, so the transform does not depend on
+ * stream position and bulk ranges are processed one long word at a time.
+ */
+public final class CryptCodec {
+    public static final CryptCodec NONE = new CryptCodec(0);
+
+    private static final int WIDE_THRESHOLD = 16;
+
+    private final int key;
+    private final long wideKey;
+
+    private CryptCodec(int keyByte) {
+        this.key = keyByte * 0x01010101;
+        this.wideKey = keyByte * 0x0101010101010101L;
+    }
+
+    public static CryptCodec of(int cryptVer, String filename) throws IOException {
+        switch (cryptVer) {
+            case 0:
+                return NONE;
+            case 111:
+                return new CryptCodec(0xac);
+            case 121:
+                return new CryptCodec(getCryptKey(filename));
+            default:
+                throw new IOException("Crypt " + cryptVer + " is not supported.");
+        }
+    }
+
+    /**
+     * @return codec equivalent to decoding with this codec and encoding with {@code other}
+     */
+    public CryptCodec andThen(CryptCodec other) {
+        int keyByte = (key ^ other.key) & 0xff;
+        return keyByte == 0 ? NONE : new CryptCodec(keyByte);
+    }
+
+    static int getCryptKey(String filename) {
+        filename = filename.toLowerCase();
+        int ind = 0;
+        for (int i = 0; i < filename.length(); i++) {
+            ind += filename.charAt(i);
+        }
+        return ind & 0xff;
+    }
+
+    /**
+     * @return key byte replicated into every byte of an int
+     */
+    public int getKey() {
+        return key;
+    }
+
+    public long getWideKey() {
+        return wideKey;
+    }
+
+    public boolean isIdentity() {
+        return key == 0;
+    }
+
+    public void apply(byte[] b, int off, int len) {
+        apply(b, off, b, off, len);
+    }
+
+    /**
+     * Transforms {@code len} bytes of {@code src} into {@code dst}. Ranges may overlap,
+     * as in {@link System#arraycopy(Object, int, Object, int, int)}.
+     */
+    public void apply(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+        if ((srcOff | dstOff | len | (src.length - (srcOff + len)) | (dst.length - (dstOff + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (key == 0) {
+            if (src != dst || srcOff != dstOff) {
+                System.arraycopy(src, srcOff, dst, dstOff, len);
+            }
+            return;
+        }
+
+        if (src == dst && srcOff < dstOff && dstOff - srcOff < len) {
+            applyBackward(src, srcOff, dstOff, len);
+            return;
+        }
+
+        int i = 0;
+        if (len >= WIDE_THRESHOLD) {
+            ByteBuffer s = ByteBuffer.wrap(src);
+            ByteBuffer d = src == dst ? s : ByteBuffer.wrap(dst);
+            for (int end = len - 7; i < end; i += 8) {
+                d.putLong(dstOff + i, s.getLong(srcOff + i) ^ wideKey);
+            }
+        }
+        for (; i < len; i++) {
+            dst[dstOff + i] = (byte) (src[srcOff + i] ^ key);
+        }
+    }
+
+    /**
+     * Overlapping move to higher offset, goes from the end so source bytes are read before they are overwritten.
+     */
+    private void applyBackward(byte[] b, int srcOff, int dstOff, int len) {
+        int i = len;
+        if (len >= WIDE_THRESHOLD) {
+            for (int end = len & ~7; i > end; i--) {
+                b[dstOff + i - 1] = (byte) (b[srcOff + i - 1] ^ key);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+            for (i -= 8; i >= 0; i -= 8) {
+                buffer.putLong(dstOff + i, buffer.getLong(srcOff + i) ^ wideKey);
+            }
+            return;
+        }
+        for (; i > 0; i--) {
+            b[dstOff + i - 1] = (byte) (b[srcOff + i - 1] ^ key);
+        }
+    }
+
+    /**
+     * Transforms {@code len} bytes of {@code buffer} starting at absolute {@code index}.
+     * Buffer position and limit are not changed.
+     */
+    public void apply(ByteBuffer buffer, int index, int len) {
+        if (key == 0) {
+            return;
+        }
+
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int off = buffer.arrayOffset() + index;
+            apply(array, off, array, off, len);
+            return;
+        }
+
+        if ((index | len | (buffer.limit() - (index + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int i = 0;
+        for (int end = len - 7; i < end; i += 8) {
+            buffer.putLong(index + i, buffer.getLong(index + i) ^ wideKey);
+        }
+        for (; i < len; i++) {
+            buffer.put(index + i, (byte) (buffer.get(index + i) ^ key));
+        }
+    }
+
+    /**
+     * Transforms remaining bytes of {@code buffer} without changing its position.
+     */
+    public void apply(ByteBuffer buffer) {
+        apply(buffer, buffer.position(), buffer.remaining());
+    }
+
+    @Override
+    public String toString() {
+        return "CryptCodec[" + Integer.toHexString(key & 0xff) + "]";
+    }
+}
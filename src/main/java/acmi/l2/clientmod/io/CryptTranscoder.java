@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Re-encodes files between plain form and Lineage2Ver111/121 in one sequential pass.
+ * <p>
+ * Source and target keys are combined into a single XOR key, so each buffer is transformed once.
+ */
+public class CryptTranscoder {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final int HEADER_SIZE = 28;
+
+    private final int bufferSize;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    public CryptTranscoder() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public CryptTranscoder(int bufferSize) {
+        if (bufferSize < 8) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+
+        this.bufferSize = bufferSize;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(this.bufferSize));
+    }
+
+    public static int getCryptVersion(Path file) throws UncheckedIOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            return getCryptVersion(channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int getCryptVersion(FileChannel channel) throws IOException {
+        String l2CryptHeader;
+        if (channel.size() >= HEADER_SIZE && (l2CryptHeader = RandomAccessFile.getCryptHeader(channel)).startsWith("Lineage2Ver")) {
+            return Integer.parseInt(l2CryptHeader.substring(11));
+        }
+        return 0;
+    }
+
+    private static ByteBuffer header(int cryptVer) {
+        ByteBuffer header = ByteBuffer.wrap(("Lineage2Ver" + cryptVer).getBytes(UTF_16LE));
+        if (header.remaining() != HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid crypt version: " + cryptVer);
+        }
+        return header;
+    }
+
+    /**
+     * Re-encodes {@code file} in place.
+     *
+     * @return {@code false} if the file already has the target crypt version
+     */
+    public boolean transcode(Path file, int targetCryptVer) throws UncheckedIOException {
+        return transcode(file, file, targetCryptVer);
+    }
+
+    /**
+     * Re-encodes {@code source} into {@code target}. The 121 key is derived from each file's own name.
+     * Output is written to a temporary file next to {@code target} and moved over it when complete,
+     * keeping POSIX permissions of the replaced file.
+     *
+     * @return {@code false} if nothing was written because {@code source} already is {@code target}
+     * with the target crypt version
+     */
+    public boolean transcode(Path source, Path target, int targetCryptVer) throws UncheckedIOException {
+        try {
+            CryptCodec targetCodec = CryptCodec.of(targetCryptVer, target.getFileName().toString());
+            ByteBuffer targetHeader = targetCryptVer != 0 ? header(targetCryptVer) : null;
+
+            try (ReplacementFile tmp = new ReplacementFile(target)) {
+                try (FileChannel in = FileChannel.open(source, READ)) {
+                    int sourceCryptVer = getCryptVersion(in);
+                    if (sourceCryptVer == targetCryptVer && Files.exists(target) && Files.isSameFile(source, target)) {
+                        return false;
+                    }
+                    CryptCodec sourceCodec = CryptCodec.of(sourceCryptVer, source.getFileName().toString());
+                    CryptCodec codec = sourceCodec.andThen(targetCodec);
+
+                    try (FileChannel out = FileChannel.open(tmp.create(), WRITE)) {
+                        if (targetHeader != null) {
+                            while (targetHeader.hasRemaining()) {
+                                out.write(targetHeader);
+                            }
+                        }
+
+                        long pos = sourceCryptVer != 0 ? HEADER_SIZE : 0;
+                        long size = in.size();
+                        if (codec.isIdentity()) {
+                            while (pos < size) {
+                                pos += in.transferTo(pos, size - pos, out);
+                            }
+                        } else {
+                            ByteBuffer buffer = buffers.get();
+                            in.position(pos);
+                            while (true) {
+                                buffer.clear();
+                                if (in.read(buffer) < 0) {
+                                    break;
+                                }
+                                buffer.flip();
+                                codec.apply(buffer);
+                                while (buffer.hasRemaining()) {
+                                    out.write(buffer);
+                                }
+                            }
+                        }
+                    }
+                }
+
+                tmp.commit(source);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Re-encodes in place every regular file under {@code dir} accepted by {@code filter},
+     * using at most {@code parallelism} worker threads.
+     *
+     * @return number of files rewritten
+     */
+    public int transcodeDirectory(Path dir, int targetCryptVer, Predicate<Path> filter, int parallelism) throws UncheckedIOException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            files = stream
+                    .filter(Files::isRegularFile)
+                    .filter(filter)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(files.size(), 1)), r -> {
+            Thread thread = new Thread(r, "transcoder-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> transcode(file, targetCryptVer)));
+            }
+
+            int count = 0;
+            UncheckedIOException failure = null;
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (future.get()) {
+                        count++;
+                    }
+                } catch (ExecutionException e) {
+                    IOException cause = e.getCause() instanceof UncheckedIOException ?
+                            ((UncheckedIOException) e.getCause()).getCause() :
+                            new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = new UncheckedIOException(cause);
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException(e));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
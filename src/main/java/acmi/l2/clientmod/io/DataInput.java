@@ -24,6 +24,10 @@ package acmi.l2.clientmod.io;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.nio.charset.Charset;
 
 import static java.nio.charset.StandardCharsets.UTF_16LE;
@@ -75,7 +79,19 @@ public interface DataInput {
     }
 
     default int readCompactInt() throws UncheckedIOException {
-        return ByteUtil.compactIntFromBytes(this::readUnsignedByte);
+        int x = readUnsignedByte();
+        int output = x & 0x3f;
+        if ((x & 0x40) != 0) {
+            for (int shift = 6; shift < 27; shift += 7) {
+                int y = readUnsignedByte();
+                output |= (y & 0x7f) << shift;
+                if ((y & 0x80) == 0) {
+                    return ByteUtil.sign(x, output);
+                }
+            }
+            output |= (readUnsignedByte() & 0x1f) << 27;
+        }
+        return ByteUtil.sign(x, output);
     }
 
     default long readLong() throws UncheckedIOException {
@@ -93,6 +109,59 @@ public interface DataInput {
         return Float.intBitsToFloat(readInt());
     }
 
+    default void readShorts(short[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+
+        byte[] chunk = new byte[Math.min(len, 0x1000 / 2) * 2];
+        ShortBuffer view = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        while (len > 0) {
+            int n = Math.min(len, chunk.length / 2);
+            readFully(chunk, 0, n * 2);
+            view.clear();
+            view.get(dst, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    default void readInts(int[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+
+        byte[] chunk = new byte[Math.min(len, 0x1000 / 4) * 4];
+        IntBuffer view = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        while (len > 0) {
+            int n = Math.min(len, chunk.length / 4);
+            readFully(chunk, 0, n * 4);
+            view.clear();
+            view.get(dst, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    default void readFloats(float[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+
+        byte[] chunk = new byte[Math.min(len, 0x1000 / 4) * 4];
+        FloatBuffer view = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        while (len > 0) {
+            int n = Math.min(len, chunk.length / 4);
+            readFully(chunk, 0, n * 4);
+            view.clear();
+            view.get(dst, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    default void readCompactInts(int[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+
+        for (int i = 0; i < len; i++) {
+            dst[off + i] = readCompactInt();
+        }
+    }
+
     Charset getCharset();
 
     default String readLine() throws UncheckedIOException {
@@ -102,9 +171,11 @@ public interface DataInput {
             return "";
         }
 
-        byte[] bytes = new byte[len > 0 ? len : -2 * len];
-        readFully(bytes);
-        return new String(bytes, 0, bytes.length - (len > 0 ? 1 : 2), len > 0 && getCharset() != null ? getCharset() : UTF_16LE);
+        int size = len > 0 ? len : -2 * len;
+        StringCodec codec = StringCodec.get();
+        byte[] bytes = codec.bytes(size);
+        readFully(bytes, 0, size);
+        return codec.decode(bytes, 0, size - (len > 0 ? 1 : 2), len > 0 && getCharset() != null ? getCharset() : UTF_16LE);
     }
 
     default String readUTF() throws UncheckedIOException {
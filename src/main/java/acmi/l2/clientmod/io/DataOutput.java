@@ -24,9 +24,12 @@ package acmi.l2.clientmod.io;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.nio.charset.Charset;
 
-import static acmi.l2.clientmod.io.ByteUtil.compactIntToByteArray;
 import static java.nio.charset.StandardCharsets.UTF_16LE;
 
 public interface DataOutput {
@@ -59,7 +62,18 @@ public interface DataOutput {
     }
 
     default void writeCompactInt(int val) throws UncheckedIOException {
-        writeBytes(compactIntToByteArray(val));
+        int sign = val < 0 ? 0x80 : 0;
+        val = Math.abs(val) & Integer.MAX_VALUE;
+        if (val < 0x40) {
+            writeByte(sign | val);
+            return;
+        }
+
+        writeByte(sign | 0x40 | (val & 0x3f));
+        for (val >>>= 6; val >= 0x80; val >>>= 7) {
+            writeByte(0x80 | (val & 0x7f));
+        }
+        writeByte(val);
     }
 
     default void writeLong(long val) throws UncheckedIOException {
@@ -77,6 +91,59 @@ public interface DataOutput {
         writeInt(Float.floatToIntBits(val));
     }
 
+    default void writeShorts(short[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+
+        byte[] chunk = new byte[Math.min(len, 0x1000 / 2) * 2];
+        ShortBuffer view = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        while (len > 0) {
+            int n = Math.min(len, chunk.length / 2);
+            view.clear();
+            view.put(src, off, n);
+            writeBytes(chunk, 0, n * 2);
+            off += n;
+            len -= n;
+        }
+    }
+
+    default void writeInts(int[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+
+        byte[] chunk = new byte[Math.min(len, 0x1000 / 4) * 4];
+        IntBuffer view = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        while (len > 0) {
+            int n = Math.min(len, chunk.length / 4);
+            view.clear();
+            view.put(src, off, n);
+            writeBytes(chunk, 0, n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+
+    default void writeFloats(float[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+
+        byte[] chunk = new byte[Math.min(len, 0x1000 / 4) * 4];
+        FloatBuffer view = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        while (len > 0) {
+            int n = Math.min(len, chunk.length / 4);
+            view.clear();
+            view.put(src, off, n);
+            writeBytes(chunk, 0, n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+
+    default void writeCompactInts(int[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+
+        for (int i = 0; i < len; i++) {
+            writeCompactInt(src[off + i]);
+        }
+    }
+
     Charset getCharset();
 
     default void writeBytes(String s) throws UncheckedIOException {
@@ -94,7 +161,7 @@ public interface DataOutput {
             writeCompactInt(0);
         } else {
             byte[] strBytes = (s + '\0').getBytes(UTF_16LE);
-            writeCompactInt(-strBytes.length);
+            writeCompactInt(-strBytes.length / 2);
             writeBytes(strBytes);
         }
     }
@@ -102,8 +169,13 @@ public interface DataOutput {
     default void writeLine(String s) throws UncheckedIOException {
         if (s == null || s.isEmpty()) {
             writeCompactInt(0);
-        } else if (getCharset() != null && getCharset().canEncode() && getCharset().newEncoder().canEncode(s)) {
-            writeBytes(s);
+            return;
+        }
+
+        ByteBuffer bytes = getCharset() != null ? StringCodec.get().encodeLine(s, getCharset()) : null;
+        if (bytes != null) {
+            writeCompactInt(bytes.remaining());
+            writeBytes(bytes.array(), 0, bytes.remaining());
         } else {
             writeChars(s);
         }
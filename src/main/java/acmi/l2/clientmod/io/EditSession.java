@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static acmi.l2.clientmod.io.UnrealPackage.*;
+import static acmi.l2.clientmod.io.UnrealPackage.ObjectFlag.*;
+
+/**
+ * Collects name, import and export table edits in memory and writes all tables once on {@link #commit()}.
+ * <p>
+ * New and relocated object data is placed into the best fitting hole of data region or appended, with space reserved
+ * by package {@link GrowthPolicy}. Replaced data is written in place when it fits.
+ * References returned by session methods are valid in the committed package.
+ */
+public final class EditSession {
+    private final UnrealPackage unrealPackage;
+
+    private final TableBuilder tables;
+    private final int exportCount;
+    private final Map<Integer, byte[]> data = new TreeMap<>();
+
+    private boolean committed;
+
+    EditSession(UnrealPackage unrealPackage) {
+        this.unrealPackage = unrealPackage;
+
+        this.tables = new TableBuilder() {
+            @Override
+            void packageExportAdded(int index, byte[] data) {
+                EditSession.this.data.put(index, data);
+            }
+
+            @Override
+            int findClass(String name) {
+                int ref = super.findClass(name);
+                return ref != 0 ? ref : unrealPackage.objectReferenceByName(name, IS_CLASS);
+            }
+        };
+        for (NameEntry entry : unrealPackage.getNameTable()) {
+            tables.appendName(entry);
+        }
+        unrealPackage.visitImports((index, classPackage, className, objectPackage, objectName) ->
+                tables.appendImport(classPackage, className, objectPackage, objectName));
+        unrealPackage.visitExports((index, objectClass, objectSuperClass, objectPackage, objectName, objectFlags, size, offset) ->
+                tables.appendExport(objectClass, objectSuperClass, objectPackage, objectName, objectFlags, size, offset));
+        this.exportCount = tables.exportCount();
+    }
+
+    public UnrealPackage getUnrealPackage() {
+        return unrealPackage;
+    }
+
+    /**
+     * @return name index ignoring case, -1 if not found
+     */
+    public int nameReference(String name) {
+        return tables.nameReference(name);
+    }
+
+    public int addName(String name) {
+        return addName(name, DEFAULT_NAME_FLAGS);
+    }
+
+    /**
+     * @return index of existing name ignoring case or of added one
+     */
+    public int addName(String name, int flags) {
+        checkState();
+
+        return tables.addName(name, flags);
+    }
+
+    public void setName(int index, String name, int flags) {
+        checkState();
+
+        tables.setName(index, name, flags);
+    }
+
+    /**
+     * @param objectName full object name, e.g. {@code Engine.Actor}
+     * @param className  full class name, e.g. {@code Core.Class}
+     * @return object reference of existing or added import
+     */
+    public int addImport(String objectName, String className) {
+        checkState();
+
+        return tables.addImport(objectName, className);
+    }
+
+    public void renameImport(int index, String objectName) {
+        checkState();
+        checkIndex(index, tables.importCount());
+
+        String[] namePath = objectName.split("\\.");
+        int pckg = tables.importPackage(namePath);
+        tables.renameImport(index, pckg, addName(namePath[namePath.length - 1]));
+    }
+
+    public void changeImportClass(int index, String className) {
+        checkState();
+        checkIndex(index, tables.importCount());
+
+        String[] classPath = className.split("\\.");
+        if (classPath.length != 2) {
+            throw new IllegalArgumentException("Format: Package.Class");
+        }
+
+        tables.changeImportClass(index, addName(classPath[0]), addName(classPath[1]));
+    }
+
+    /**
+     * @return object reference of existing or added export
+     */
+    public int addExport(String objectName, String objectClass, String objectSuperClass, byte[] data, int flags) {
+        checkState();
+
+        int classRef = tables.classReference(objectClass);
+        int superClassRef = tables.classReference(objectSuperClass);
+
+        String[] namePath = objectName.split("\\.");
+        int pckg = tables.exportPackage(namePath, DEFAULT_OBJECT_FLAGS);
+        int name = addName(namePath[namePath.length - 1]);
+
+        int ref = tables.exportReference(classRef, superClassRef, pckg, name);
+        if (ref == 0) {
+            int index = tables.appendExport(classRef, superClassRef, pckg, name, flags, 0, 0);
+            this.data.put(index, data.clone());
+            ref = index + 1;
+        }
+        return ref;
+    }
+
+    public void renameExport(int index, String objectName) {
+        checkState();
+        checkIndex(index, tables.exportCount());
+
+        String[] namePath = objectName.split("\\.");
+        int pckg = tables.exportPackage(namePath, Public.getMask() | LoadForServer.getMask() | LoadForEdit.getMask());
+        tables.renameExport(index, pckg, addName(namePath[namePath.length - 1]));
+    }
+
+    /**
+     * Replaces export with empty package.
+     */
+    public void removeExport(int index) {
+        checkState();
+        checkIndex(index, tables.exportCount());
+
+        int pckgClass = tables.classReference("Core.Package");
+        tables.changeExportClass(index, pckgClass, 0, ObjectFlag.getFlags(Public, LoadForClient, LoadForServer, LoadForEdit));
+        data.put(index, tables.packageData());
+    }
+
+    public void setObjectRawData(int index, byte[] data) {
+        checkState();
+        checkIndex(index, tables.exportCount());
+
+        this.data.put(index, data.clone());
+    }
+
+    /**
+     * Writes object data and tables. If writing fails, package tables are re-read, and the session
+     * may be committed again.
+     */
+    public void commit() throws UncheckedIOException {
+        checkState();
+
+        RandomAccess file = unrealPackage.file;
+
+        int[] indices = new int[data.size()];
+        int[] sizes = new int[indices.length];
+        int[] offsets = new int[indices.length];
+        int n = 0;
+        for (int index : data.keySet()) {
+            indices[n] = index;
+            sizes[n] = tables.exportSize(index);
+            offsets[n++] = tables.exportOffset(index);
+        }
+
+        try {
+            for (Map.Entry<Integer, byte[]> e : data.entrySet()) {
+                int index = e.getKey();
+                byte[] bytes = e.getValue();
+                int size = tables.exportSize(index);
+
+                int offset;
+                if (index >= exportCount) {
+                    offset = unrealPackage.allocateData(bytes.length);
+                } else if (bytes.length <= unrealPackage.dataCapacity(tables.exportOffset(index), size)) {
+                    offset = tables.exportOffset(index);
+                    unrealPackage.resizeData(offset, size, bytes.length);
+                } else {
+                    unrealPackage.freeData(tables.exportOffset(index), size);
+                    offset = unrealPackage.allocateData(bytes.length);
+                }
+                file.setPosition(offset);
+                file.writeBytes(bytes);
+
+                tables.setExportData(index, bytes.length, offset);
+            }
+
+            file.setPosition(unrealPackage.freeSpace().getEnd());
+            int[] tableOffsets = tables.writeTables(file);
+            file.trimToPosition();
+
+            file.setPosition(NAME_COUNT_OFFSET);
+            file.writeInt(tables.nameCount());
+            file.writeInt(tableOffsets[0]);
+            file.writeInt(tables.exportCount());
+            file.writeInt(tableOffsets[2]);
+            file.writeInt(tables.importCount());
+            file.writeInt(tableOffsets[1]);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < indices.length; i++) {
+                tables.setExportData(indices[i], sizes[i], offsets[i]);
+            }
+            try {
+                unrealPackage.reloadTables();
+            } catch (RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        committed = true;
+
+        unrealPackage.readNameTable();
+        unrealPackage.readImportTable();
+        unrealPackage.readExportTable();
+    }
+
+    private void checkState() {
+        if (committed) {
+            throw new IllegalStateException("Session already committed");
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
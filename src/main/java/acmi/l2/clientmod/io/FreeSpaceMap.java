@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Tracks unused ranges of package data region.
+ * <p>
+ * Holes are kept both by offset, for coalescing on {@link #free(int, int)}, and by size,
+ * for best fit {@link #allocate(int)}. Both operations are O(log n).
+ */
+final class FreeSpaceMap {
+    private final TreeMap<Integer, Integer> holes = new TreeMap<>();
+    /**
+     * {@code length << 32 | offset}
+     */
+    private final TreeSet<Long> holesBySize = new TreeSet<>();
+    private final int start;
+    private int end;
+    /**
+     * Some ranges are referenced by more than one entry, freed space can't be reused safely.
+     */
+    private boolean shared;
+
+    FreeSpaceMap(int start) {
+        this.start = start;
+        this.end = start;
+    }
+
+    /**
+     * @param ranges {@code offset << 32 | size} of used ranges, sorted in place
+     * @param base   data start if there are no used ranges
+     */
+    static FreeSpaceMap of(long[] ranges, int count, int base) {
+        if (count == 0) {
+            return new FreeSpaceMap(base);
+        }
+
+        Arrays.sort(ranges, 0, count);
+        FreeSpaceMap map = new FreeSpaceMap((int) (ranges[0] >>> 32));
+        int pos = map.start;
+        for (int i = 0; i < count; i++) {
+            int offset = (int) (ranges[i] >>> 32);
+            int size = (int) ranges[i];
+            if (offset > pos) {
+                map.addHole(pos, offset - pos);
+            } else if (offset < pos) {
+                map.shared = true;
+            }
+            pos = Math.max(pos, offset + size);
+        }
+        map.end = pos;
+        return map;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * @return end of used data
+     */
+    int getEnd() {
+        return end;
+    }
+
+    boolean isEmpty() {
+        return end == start;
+    }
+
+    /**
+     * @return offset of the smallest hole that fits {@code size} bytes, or current end which is moved forward
+     */
+    int allocate(int size) {
+        if (size <= 0) {
+            return end;
+        }
+
+        Long fit = holesBySize.ceiling((long) size << 32);
+        if (fit == null) {
+            int offset = end;
+            end += size;
+            return offset;
+        }
+
+        int offset = (int) fit.longValue();
+        int length = (int) (fit >>> 32);
+        removeHole(offset, length);
+        if (length > size) {
+            addHole(offset + size, length - size);
+        }
+        return offset;
+    }
+
+    void free(int offset, int size) {
+        if (size <= 0 || shared) {
+            return;
+        }
+
+        Map.Entry<Integer, Integer> prev = holes.floorEntry(offset);
+        if (prev != null && prev.getKey() + prev.getValue() == offset) {
+            removeHole(prev.getKey(), prev.getValue());
+            offset = prev.getKey();
+            size += prev.getValue();
+        }
+        Integer next = holes.get(offset + size);
+        if (next != null) {
+            removeHole(offset + size, next);
+            size += next;
+        }
+
+        if (offset + size >= end) {
+            end = offset;
+        } else {
+            addHole(offset, size);
+        }
+    }
+
+    int getHoleCount() {
+        return holes.size();
+    }
+
+    private void addHole(int offset, int length) {
+        holes.put(offset, length);
+        holesBySize.add((long) length << 32 | offset);
+    }
+
+    private void removeHole(int offset, int length) {
+        holes.remove(offset);
+        holesBySize.remove((long) length << 32 | offset);
+    }
+}
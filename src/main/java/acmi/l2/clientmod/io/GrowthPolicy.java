@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+/**
+ * Space reserved for export object data when it is created or relocated, so that later growth
+ * can be written in place.
+ */
+@FunctionalInterface
+public interface GrowthPolicy {
+    GrowthPolicy NONE = size -> size;
+
+    /**
+     * @return capacity to reserve for {@code size} bytes of data, not less than {@code size}
+     */
+    int capacity(int size);
+
+    /**
+     * @param percent extra space relative to data size
+     */
+    static GrowthPolicy percent(int percent) {
+        if (percent < 0) {
+            throw new IllegalArgumentException("Negative percent: " + percent);
+        }
+
+        return size -> (int) Math.min(Integer.MAX_VALUE, size + (long) size * percent / 100);
+    }
+
+    /**
+     * Rounds data size up to power of two.
+     */
+    static GrowthPolicy powerOfTwo() {
+        return size -> size <= 1 || size > 1 << 30 ? size : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * @param s {@code none}, {@code pow2} or percent, e.g. {@code 25%}
+     */
+    static GrowthPolicy parse(String s) {
+        s = s.trim();
+        if (s.equalsIgnoreCase("none")) {
+            return NONE;
+        }
+        if (s.equalsIgnoreCase("pow2")) {
+            return powerOfTwo();
+        }
+        if (s.endsWith("%")) {
+            return percent(Integer.parseInt(s.substring(0, s.length() - 1).trim()));
+        }
+        throw new IllegalArgumentException("Unknown growth policy: " + s);
+    }
+}
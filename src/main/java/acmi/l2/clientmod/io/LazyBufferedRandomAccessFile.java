@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Demand paged alternative to {@link BufferedRandomAccessFile}.
+ * <p>
+ * File is read and decrypted in fixed size pages when they are touched for the first time,
+ * loaded pages stay in memory. Sessions opened with {@link #openNewSession(boolean)} share pages,
+ * each session has its own position. In writable sessions writes go to pages and through to the file.
+ */
+public class LazyBufferedRandomAccessFile implements RandomAccess {
+    public static final int DEFAULT_PAGE_SIZE = 1 << 16;
+
+    private final Pages pages;
+    private final boolean readOnly;
+    private final byte[] scratch = new byte[8];
+
+    private int position;
+    private int currentPageIndex = -1;
+    private byte[] currentPage;
+    private boolean closed;
+
+    public LazyBufferedRandomAccessFile(File f, boolean readOnly, Charset charset) throws UncheckedIOException {
+        this(f, readOnly, charset, DEFAULT_PAGE_SIZE);
+    }
+
+    public LazyBufferedRandomAccessFile(File f, boolean readOnly, Charset charset, int pageSize) throws UncheckedIOException {
+        if (pageSize <= 0 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two: " + pageSize);
+        }
+
+        this.pages = new Pages(new RandomAccessFile(f, readOnly, charset), readOnly, pageSize);
+        this.readOnly = readOnly;
+    }
+
+    private LazyBufferedRandomAccessFile(Pages pages, boolean readOnly) {
+        this.pages = pages;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public String getName() {
+        return pages.file.getName();
+    }
+
+    @Override
+    public Charset getCharset() {
+        return pages.file.getCharset();
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+
+        this.position = position;
+    }
+
+    public int length() {
+        return pages.length;
+    }
+
+    @Override
+    public void trimToPosition() throws UncheckedIOException {
+        pages.trim(position, readOnly);
+    }
+
+    @Override
+    public void skip(int n) throws UncheckedIOException {
+        setPosition(position + n);
+    }
+
+    @Override
+    public void flush() throws UncheckedIOException {
+        if (!readOnly) {
+            synchronized (pages) {
+                pages.writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Starts a daemon thread that loads all pages that are not loaded yet.
+     */
+    public Thread warmUp() {
+        Thread thread = new Thread(pages::loadAll, "warm up " + getName());
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    public boolean isLoaded() {
+        return pages.isLoaded();
+    }
+
+    private byte[] page(int index) throws UncheckedIOException {
+        if (index != currentPageIndex) {
+            currentPage = pages.get(index);
+            currentPageIndex = index;
+        }
+        return currentPage;
+    }
+
+    @Override
+    public int readUnsignedByte() throws UncheckedIOException {
+        if (position >= pages.length) {
+            throw new UncheckedIOException(new EOFException());
+        }
+
+        int b = page(position >> pages.pageShift)[position & pages.pageMask] & 0xff;
+        position++;
+        return b;
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return;
+        }
+
+        if (position > pages.length - len) {
+            throw new UncheckedIOException(new EOFException());
+        }
+
+        while (len > 0) {
+            int pageOffset = position & pages.pageMask;
+            int n = Math.min(len, pages.pageSize - pageOffset);
+            System.arraycopy(page(position >> pages.pageShift), pageOffset, b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private boolean inPage(int n) {
+        return position <= pages.length - n && (position & pages.pageMask) <= pages.pageSize - n;
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        if (!inPage(2)) {
+            return RandomAccess.super.readUnsignedShort();
+        }
+
+        int val = ByteUtil.getUnsignedShort(page(position >> pages.pageShift), position & pages.pageMask);
+        position += 2;
+        return val;
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        if (!inPage(4)) {
+            return RandomAccess.super.readInt();
+        }
+
+        int val = ByteUtil.getInt(page(position >> pages.pageShift), position & pages.pageMask);
+        position += 4;
+        return val;
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        if (!inPage(8)) {
+            return RandomAccess.super.readLong();
+        }
+
+        long val = ByteUtil.getLong(page(position >> pages.pageShift), position & pages.pageMask);
+        position += 8;
+        return val;
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        if (!inPage(ByteUtil.MAX_COMPACT_INT_SIZE)) {
+            return RandomAccess.super.readCompactInt();
+        }
+
+        byte[] page = page(position >> pages.pageShift);
+        int offset = position & pages.pageMask;
+        int val = ByteUtil.getCompactInt(page, offset);
+        position += ByteUtil.compactIntLength(page, offset);
+        return val;
+    }
+
+    @Override
+    public void writeCompactInt(int val) throws UncheckedIOException {
+        writeBytes(scratch, 0, ByteUtil.putCompactInt(scratch, 0, val));
+    }
+
+    @Override
+    public void writeShort(int val) throws UncheckedIOException {
+        ByteUtil.putShort(scratch, 0, val);
+        writeBytes(scratch, 0, 2);
+    }
+
+    @Override
+    public void writeInt(int val) throws UncheckedIOException {
+        ByteUtil.putInt(scratch, 0, val);
+        writeBytes(scratch, 0, 4);
+    }
+
+    @Override
+    public void writeLong(long val) throws UncheckedIOException {
+        ByteUtil.putLong(scratch, 0, val);
+        writeBytes(scratch, 0, 8);
+    }
+
+    @Override
+    public void writeByte(int b) throws UncheckedIOException {
+        scratch[0] = (byte) b;
+        writeBytes(scratch, 0, 1);
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        pages.write(position, b, off, len, readOnly);
+        position += len;
+    }
+
+    @Override
+    public LazyBufferedRandomAccessFile openNewSession(boolean readOnly) throws UncheckedIOException {
+        pages.open(readOnly);
+        return new LazyBufferedRandomAccessFile(pages, readOnly);
+    }
+
+    @Override
+    public void close() throws UncheckedIOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        currentPage = null;
+
+        pages.close();
+    }
+
+    private static final class Pages {
+        final RandomAccessFile file;
+        RandomAccessFile writer;
+
+        final int pageSize;
+        final int pageShift;
+        final int pageMask;
+
+        volatile AtomicReferenceArray<byte[]> pages;
+        volatile int length;
+
+        int sessions = 1;
+
+        Pages(RandomAccessFile file, boolean readOnly, int pageSize) {
+            this.file = file;
+            this.writer = readOnly ? null : file;
+            this.pageSize = pageSize;
+            this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+            this.pageMask = pageSize - 1;
+            this.length = file.length();
+            this.pages = new AtomicReferenceArray<>(pageCount(length));
+        }
+
+        int pageCount(int length) {
+            return (int) (((long) length + pageMask) >> pageShift);
+        }
+
+        byte[] get(int index) throws UncheckedIOException {
+            byte[] page = pages.get(index);
+            if (page == null) {
+                synchronized (this) {
+                    page = load(index);
+                }
+            }
+            return page;
+        }
+
+        private byte[] load(int index) throws UncheckedIOException {
+            byte[] page = pages.get(index);
+            if (page == null) {
+                page = new byte[pageSize];
+                int pageStart = index << pageShift;
+                int n = Math.min(pageSize, length - pageStart);
+                if (n > 0) {
+                    file.setPosition(pageStart);
+                    file.readFully(page, 0, n);
+                }
+                pages.set(index, page);
+            }
+            return page;
+        }
+
+        synchronized void write(int position, byte[] b, int off, int len, boolean readOnly) throws UncheckedIOException {
+            int end = position + len;
+            if (end < 0) {
+                throw new OutOfMemoryError();
+            }
+            if (end > length) {
+                grow(end);
+            }
+
+            for (int pos = position, i = off; pos < end; ) {
+                int pageOffset = pos & pageMask;
+                int n = Math.min(end - pos, pageSize - pageOffset);
+                System.arraycopy(b, i, load(pos >> pageShift), pageOffset, n);
+                pos += n;
+                i += n;
+            }
+
+            if (!readOnly) {
+                writer.setPosition(position);
+                writer.writeBytes(b, off, len);
+            }
+        }
+
+        private void grow(int newLength) {
+            int oldCount = pageCount(length);
+            int newCount = pageCount(newLength);
+            if (oldCount > 0) {
+                load(oldCount - 1);
+            }
+
+            AtomicReferenceArray<byte[]> pages = this.pages;
+            if (newCount > pages.length()) {
+                AtomicReferenceArray<byte[]> newPages = new AtomicReferenceArray<>(Math.max(newCount, pages.length() + (pages.length() >> 1)));
+                for (int i = 0; i < pages.length(); i++) {
+                    newPages.set(i, pages.get(i));
+                }
+                pages = newPages;
+            }
+            for (int i = oldCount; i < newCount; i++) {
+                if (pages.get(i) == null) {
+                    pages.set(i, new byte[pageSize]);
+                }
+            }
+            this.pages = pages;
+            this.length = newLength;
+        }
+
+        synchronized void trim(int newLength, boolean readOnly) throws UncheckedIOException {
+            if (!readOnly) {
+                writer.setPosition(newLength);
+                writer.trimToPosition();
+            }
+
+            if (newLength < length) {
+                AtomicReferenceArray<byte[]> pages = this.pages;
+                for (int i = newLength >> pageShift; i < pages.length(); i++) {
+                    byte[] page = pages.get(i);
+                    if (page != null) {
+                        Arrays.fill(page, i == newLength >> pageShift ? newLength & pageMask : 0, pageSize, (byte) 0);
+                    }
+                }
+                length = newLength;
+            } else if (newLength > length) {
+                grow(newLength);
+            }
+        }
+
+        void loadAll() {
+            for (int i = 0; ; i++) {
+                synchronized (this) {
+                    if (sessions == 0 || i >= pageCount(length)) {
+                        return;
+                    }
+                    load(i);
+                }
+            }
+        }
+
+        boolean isLoaded() {
+            AtomicReferenceArray<byte[]> pages = this.pages;
+            for (int i = pageCount(length) - 1; i >= 0; i--) {
+                if (pages.get(i) == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void open(boolean readOnly) throws UncheckedIOException {
+            if (sessions == 0) {
+                throw new IllegalStateException("Closed");
+            }
+
+            if (!readOnly && writer == null) {
+                writer = file.openNewSession(false);
+            }
+            sessions++;
+        }
+
+        synchronized void close() throws UncheckedIOException {
+            if (--sessions > 0) {
+                return;
+            }
+
+            pages = new AtomicReferenceArray<>(0);
+            try {
+                if (writer != null && writer != file) {
+                    writer.close();
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * {@link RandomAccess} over a memory mapped file.
+ * <p>
+ * Lineage2Ver111/121 files are decoded on read and encoded on write, data is never copied to the heap.
+ * Sessions of one file share its data length, writes and trims of one session are seen by the others.
+ * In write mode mapping grows ahead of the data, so while a writable session is open the file size
+ * is not the data length and the file should be opened only through this class. The file is truncated
+ * to the data length when the last writable session is closed, after its mapping is released,
+ * since a file with a mapped section can't be truncated on Windows.
+ */
+public class MappedRandomAccessFile implements RandomAccess {
+    private static final int MIN_GROWTH = 1 << 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 28;
+
+    private static final Map<String, Shared> SHARED = new HashMap<>();
+
+    private final FileChannel channel;
+    private final String packageName;
+    private final String path;
+    private final boolean readOnly;
+    private final String key;
+    private final Shared shared;
+
+    private final int cryptVer;
+    private final CryptCodec codec;
+    private final int xorKey;
+    private final int startOffset;
+
+    private final Charset charset;
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int position;
+
+    public MappedRandomAccessFile(File f, boolean readOnly, Charset charset) throws UncheckedIOException {
+        try {
+            channel = readOnly ? FileChannel.open(f.toPath(), READ) : FileChannel.open(f.toPath(), READ, WRITE);
+            packageName = f.getName().substring(0, f.getName().lastIndexOf('.'));
+            path = f.getPath();
+            this.readOnly = readOnly;
+
+            try {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("File is too large: " + size);
+                }
+
+                String l2CryptHeader;
+                if (size >= 28 && (l2CryptHeader = RandomAccessFile.getCryptHeader(channel)).startsWith("Lineage2Ver")) {
+                    startOffset = 28;
+                    cryptVer = Integer.parseInt(l2CryptHeader.substring(11));
+                    codec = CryptCodec.of(cryptVer, f.getName());
+                } else {
+                    startOffset = 0;
+                    cryptVer = 0;
+                    codec = CryptCodec.NONE;
+                }
+                xorKey = codec.getKey();
+
+                key = f.getCanonicalPath();
+                synchronized (SHARED) {
+                    shared = SHARED.computeIfAbsent(key, k -> new Shared((int) size - startOffset));
+                    shared.sessions++;
+                    if (!readOnly) {
+                        shared.writers++;
+                    }
+                }
+                try {
+                    map(shared.length);
+                } catch (IOException | RuntimeException e) {
+                    release();
+                    throw e;
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+
+            this.charset = charset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public MappedRandomAccessFile(String path, boolean readOnly, Charset charset) throws UncheckedIOException {
+        this(new File(path), readOnly, charset);
+    }
+
+    private void map(int capacity) throws IOException {
+        MappedByteBuffer old = buffer;
+        buffer = channel.map(readOnly ? READ_ONLY : READ_WRITE, 0, (long) startOffset + capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.capacity = capacity;
+
+        if (old != null) {
+            unmap(old);
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError();
+        }
+        if (minCapacity <= capacity) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity + (capacity >> 1), capacity + MIN_GROWTH);
+        if (newCapacity < minCapacity || newCapacity > MAX_CAPACITY) {
+            newCapacity = Math.max(minCapacity, Math.min(newCapacity, MAX_CAPACITY));
+        }
+
+        try {
+            map(newCapacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Releases mapping without waiting for GC, best effort.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException ignore) {
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignore) {
+        }
+    }
+
+    @Override
+    public String getName() {
+        return packageName;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getCryptVersion() {
+        return cryptVer;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+
+        this.position = position;
+    }
+
+    public int length() {
+        return shared.length;
+    }
+
+    @Override
+    public void trimToPosition() throws UncheckedIOException {
+        if (readOnly) {
+            throw new UncheckedIOException(new IOException("File is opened in read only mode"));
+        }
+
+        int length = shared.length;
+        if (position > length) {
+            ensureCapacity(position);
+        } else {
+            ensureCapacity(length);
+            // bytes past length are kept zero, as in a file extended after truncation
+            for (int i = startOffset + position, end = startOffset + length; i < end; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        shared.length = position;
+    }
+
+    @Override
+    public void skip(int n) throws UncheckedIOException {
+        setPosition(position + n);
+    }
+
+    @Override
+    public int readUnsignedByte() throws UncheckedIOException {
+        checkRemaining(1);
+
+        return (buffer.get(startOffset + position++) ^ xorKey) & 0xff;
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return;
+        }
+
+        checkRemaining(len);
+
+        buffer.position(startOffset + position);
+        buffer.get(b, off, len);
+        position += len;
+
+        codec.apply(b, off, len);
+    }
+
+    private void checkRemaining(long n) throws UncheckedIOException {
+        if (position > shared.length - n) {
+            throw new UncheckedIOException(new EOFException());
+        }
+        if (position + n > capacity) {
+            // data was appended by another session
+            if (readOnly) {
+                try {
+                    map(shared.length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                ensureCapacity((int) (position + n));
+            }
+        }
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        checkRemaining(2);
+
+        int val = (buffer.getShort(startOffset + position) ^ xorKey) & 0xffff;
+        position += 2;
+        return val;
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        checkRemaining(4);
+
+        int val = buffer.getInt(startOffset + position) ^ xorKey;
+        position += 4;
+        return val;
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        checkRemaining(8);
+
+        long val = buffer.getLong(startOffset + position) ^ codec.getWideKey();
+        position += 8;
+        return val;
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        if (xorKey != 0 || position > shared.length - ByteUtil.MAX_COMPACT_INT_SIZE) {
+            return RandomAccess.super.readCompactInt();
+        }
+        checkRemaining(ByteUtil.MAX_COMPACT_INT_SIZE);
+
+        int index = startOffset + position;
+        int val = ByteUtil.getCompactInt(buffer, index);
+        position += ByteUtil.compactIntLength(buffer, index);
+        return val;
+    }
+
+    @Override
+    public void writeCompactInt(int val) throws UncheckedIOException {
+        int n = ByteUtil.sizeOfCompactInt(val);
+        ensureCapacity(position + n);
+
+        int index = startOffset + position;
+        ByteUtil.putCompactInt(buffer, index, val);
+        codec.apply(buffer, index, n);
+        movePosition(n);
+    }
+
+    @Override
+    public void writeShort(int val) throws UncheckedIOException {
+        ensureCapacity(position + 2);
+
+        buffer.putShort(startOffset + position, (short) (val ^ xorKey));
+        movePosition(2);
+    }
+
+    @Override
+    public void writeInt(int val) throws UncheckedIOException {
+        ensureCapacity(position + 4);
+
+        buffer.putInt(startOffset + position, val ^ xorKey);
+        movePosition(4);
+    }
+
+    @Override
+    public void writeLong(long val) throws UncheckedIOException {
+        ensureCapacity(position + 8);
+
+        buffer.putLong(startOffset + position, val ^ codec.getWideKey());
+        movePosition(8);
+    }
+
+    private void movePosition(int n) {
+        position += n;
+        if (position > shared.length) {
+            shared.length = position;
+        }
+    }
+
+    @Override
+    public void readShorts(short[] dst, int off, int len) throws UncheckedIOException {
+        if (xorKey != 0) {
+            RandomAccess.super.readShorts(dst, off, len);
+            return;
+        }
+
+        ByteUtil.checkBounds(dst.length, off, len);
+        checkRemaining((long) len * 2);
+
+        buffer.position(startOffset + position);
+        buffer.asShortBuffer().get(dst, off, len);
+        position += len * 2;
+    }
+
+    @Override
+    public void readInts(int[] dst, int off, int len) throws UncheckedIOException {
+        if (xorKey != 0) {
+            RandomAccess.super.readInts(dst, off, len);
+            return;
+        }
+
+        ByteUtil.checkBounds(dst.length, off, len);
+        checkRemaining((long) len * 4);
+
+        buffer.position(startOffset + position);
+        buffer.asIntBuffer().get(dst, off, len);
+        position += len * 4;
+    }
+
+    @Override
+    public void readFloats(float[] dst, int off, int len) throws UncheckedIOException {
+        if (xorKey != 0) {
+            RandomAccess.super.readFloats(dst, off, len);
+            return;
+        }
+
+        ByteUtil.checkBounds(dst.length, off, len);
+        checkRemaining((long) len * 4);
+
+        buffer.position(startOffset + position);
+        buffer.asFloatBuffer().get(dst, off, len);
+        position += len * 4;
+    }
+
+    @Override
+    public void writeShorts(short[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+        ensureCapacity(position + len * 2);
+
+        int index = startOffset + position;
+        buffer.position(index);
+        buffer.asShortBuffer().put(src, off, len);
+        codec.apply(buffer, index, len * 2);
+        movePosition(len * 2);
+    }
+
+    @Override
+    public void writeInts(int[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+        ensureCapacity(position + len * 4);
+
+        int index = startOffset + position;
+        buffer.position(index);
+        buffer.asIntBuffer().put(src, off, len);
+        codec.apply(buffer, index, len * 4);
+        movePosition(len * 4);
+    }
+
+    @Override
+    public void writeFloats(float[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+        ensureCapacity(position + len * 4);
+
+        int index = startOffset + position;
+        buffer.position(index);
+        buffer.asFloatBuffer().put(src, off, len);
+        codec.apply(buffer, index, len * 4);
+        movePosition(len * 4);
+    }
+
+    @Override
+    public void writeByte(int b) throws UncheckedIOException {
+        ensureCapacity(position + 1);
+
+        buffer.put(startOffset + position, (byte) (b ^ xorKey));
+        movePosition(1);
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ensureCapacity(position + len);
+
+        buffer.position(startOffset + position);
+        buffer.put(b, off, len);
+        codec.apply(buffer, startOffset + position, len);
+        movePosition(len);
+    }
+
+    @Override
+    public void flush() throws UncheckedIOException {
+        if (!readOnly) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public MappedRandomAccessFile openNewSession(boolean readOnly) throws UncheckedIOException {
+        flush();
+
+        return new MappedRandomAccessFile(new File(getPath()), readOnly, getCharset());
+    }
+
+    @Override
+    public void close() throws UncheckedIOException {
+        if (buffer == null) {
+            return;
+        }
+
+        try {
+            try {
+                if (!readOnly) {
+                    buffer.force();
+                }
+                MappedByteBuffer mapped = buffer;
+                buffer = null;
+                unmap(mapped);
+
+                release();
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Leaves shared state, last writable session truncates the file to data length.
+     */
+    private void release() throws IOException {
+        synchronized (SHARED) {
+            if (--shared.sessions == 0) {
+                SHARED.remove(key);
+            }
+            if (!readOnly && --shared.writers == 0) {
+                long size = (long) startOffset + shared.length;
+                if (channel.size() != size) {
+                    channel.truncate(size);
+                }
+            }
+        }
+    }
+
+    /**
+     * State shared by all sessions of one file.
+     */
+    private static final class Shared {
+        int sessions;
+        int writers;
+        volatile int length;
+
+        Shared(int length) {
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.util.List;
+
+import static acmi.l2.clientmod.util.StringMethods.caseInsensitiveHashCode;
+
+/**
+ * Case-insensitive open addressing index over a name table.
+ * For names that are equal ignoring case the lowest index wins.
+ */
+final class NameIndex {
+    final List<UnrealPackage.NameEntry> names;
+
+    private final int[] hashes;
+    private final int[] slots;
+    private final int mask;
+
+    NameIndex(List<UnrealPackage.NameEntry> names) {
+        this.names = names;
+
+        int capacity = Integer.highestOneBit(Math.max(names.size(), 8) * 2 - 1) << 1;
+        this.hashes = new int[capacity];
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i).getName();
+            int hash = caseInsensitiveHashCode(name);
+            int slot = find(name, hash);
+            if (slots[slot] == 0) {
+                hashes[slot] = hash;
+                slots[slot] = i + 1;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    /**
+     * @return slot holding {@code name} or the empty slot where it belongs
+     */
+    private int find(String name, int hash) {
+        int slot = spread(hash) & mask;
+        while (slots[slot] != 0) {
+            if (hashes[slot] == hash && names.get(slots[slot] - 1).getName().equalsIgnoreCase(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    int indexOf(String name) {
+        return slots[find(name, caseInsensitiveHashCode(name))] - 1;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared intern pool for name table strings.
+ * <p>
+ * Names are keyed by their exact encoded bytes and charset, so a name that is already pooled is
+ * returned without decoding. Exact bytes keep the original spelling; names that differ only in case
+ * are pooled separately. Values are weakly referenced and disappear once no package uses them.
+ *
+ * @see UnrealPackage#setNamePool(NamePool)
+ */
+public final class NamePool {
+    /**
+     * Approximate size of a String object plus its array header. String contents are estimated by the encoded length.
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    private final ConcurrentHashMap<Key, Value> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<String> queue = new ReferenceQueue<>();
+    private final ThreadLocal<Key> probe = ThreadLocal.withInitial(Key::new);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * @return pooled name for {@code len} bytes of {@code b} starting at {@code off} decoded with {@code charset}
+     */
+    public String intern(byte[] b, int off, int len, Charset charset) {
+        ByteUtil.checkBounds(b.length, off, len);
+        expunge();
+
+        Key key = probe.get().set(b, off, len, charset);
+        try {
+            Value value = map.get(key);
+            String s;
+            if (value != null && (s = value.get()) != null) {
+                hit(len);
+                return s;
+            }
+        } finally {
+            key.clear();
+        }
+
+        String s = StringCodec.get().decode(b, off, len, charset);
+        Key stored = new Key().set(Arrays.copyOfRange(b, off, off + len), 0, len, charset);
+        while (true) {
+            Value value = map.get(stored);
+            String existing;
+            if (value != null && (existing = value.get()) != null) {
+                hit(len);
+                return existing;
+            }
+
+            Value newValue = new Value(s, stored, queue);
+            if (value == null ? map.putIfAbsent(stored, newValue) == null : map.replace(stored, value, newValue)) {
+                misses.increment();
+                return s;
+            }
+        }
+    }
+
+    private void hit(int len) {
+        hits.increment();
+        bytesSaved.add(STRING_OVERHEAD + len);
+    }
+
+    private void expunge() {
+        Value value;
+        while ((value = (Value) queue.poll()) != null) {
+            map.remove(value.key, value);
+        }
+    }
+
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return estimated heap bytes not allocated thanks to pool hits
+     */
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    public void clear() {
+        map.clear();
+        hits.reset();
+        misses.reset();
+        bytesSaved.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "NamePool[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", bytesSaved=" + getBytesSaved() + "]";
+    }
+
+    private static final class Key {
+        private byte[] bytes;
+        private int off;
+        private int len;
+        private Charset charset;
+        private int hash;
+
+        Key set(byte[] bytes, int off, int len, Charset charset) {
+            this.bytes = bytes;
+            this.off = off;
+            this.len = len;
+            this.charset = charset;
+
+            int h = charset.hashCode();
+            for (int i = 0; i < len; i++) {
+                h = 31 * h + bytes[off + i];
+            }
+            this.hash = h;
+            return this;
+        }
+
+        void clear() {
+            bytes = null;
+            charset = null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key k = (Key) o;
+            if (hash != k.hash || len != k.len || !charset.equals(k.charset)) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (bytes[off + i] != k.bytes[k.off + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Value extends WeakReference<String> {
+        final Key key;
+
+        Value(String referent, Key key, ReferenceQueue<String> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import static acmi.l2.clientmod.util.StringMethods.foldCase;
+
+/**
+ * Case-insensitive index of import and export object paths.
+ * <p>
+ * Each entry path is hashed once, incrementally from its package hash, with a 64-bit polynomial over
+ * case-folded chars. A lookup hashes the query string the same way and verifies candidates segment by
+ * segment, so no path strings are built.
+ */
+final class ObjectIndex {
+    static final long MULTIPLIER = 0x100000001B3L;
+
+    final UnrealPackage unrealPackage;
+    final List<UnrealPackage.NameEntry> names;
+    final List<UnrealPackage.ImportEntry> imports;
+    final List<UnrealPackage.ExportEntry> exports;
+
+    private final long[] importHashes;
+    private final int[] importLengths;
+    private final long[] exportHashes;
+    private final int[] exportLengths;
+
+    private final String packageName;
+    private final long packagePrefixHash;
+
+    private final Table importPaths;
+    private final Table exportFullPaths;
+    private final Table exportInnerPaths;
+
+    ObjectIndex(UnrealPackage unrealPackage) {
+        this.unrealPackage = unrealPackage;
+        this.names = unrealPackage.getNameTable();
+        this.imports = unrealPackage.getImportTable();
+        this.exports = unrealPackage.getExportTable();
+
+        this.importHashes = new long[imports.size()];
+        this.importLengths = new int[imports.size()];
+        this.exportHashes = new long[exports.size()];
+        this.exportLengths = new int[exports.size()];
+        Arrays.fill(importLengths, -1);
+        Arrays.fill(exportLengths, -1);
+
+        // same as string concatenation in ExportEntry.getObjectFullName
+        this.packageName = String.valueOf(unrealPackage.getPackageName());
+        this.packagePrefixHash = hash(hash(0, packageName), '.');
+
+        importPaths = new Table(imports.size());
+        for (int i = 0; i < imports.size(); i++) {
+            int ref = -(i + 1);
+            importPaths.add(innerHash(ref), ref);
+        }
+
+        exportFullPaths = new Table(exports.size());
+        exportInnerPaths = new Table(exports.size());
+        for (int i = 0; i < exports.size(); i++) {
+            int ref = i + 1;
+            long inner = innerHash(ref);
+            exportInnerPaths.add(inner, ref);
+            exportFullPaths.add(exportFullPathHash(inner, exportLengths[i]), ref);
+        }
+    }
+
+    static long hash(long h, char c) {
+        return h * MULTIPLIER + foldCase(c);
+    }
+
+    static long hash(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = hash(h, s.charAt(i));
+        }
+        return h;
+    }
+
+    private static long pow(int n) {
+        long result = 1;
+        for (long base = MULTIPLIER; n > 0; n >>= 1, base *= base) {
+            if ((n & 1) != 0) {
+                result *= base;
+            }
+        }
+        return result;
+    }
+
+    private long innerHash(int ref) {
+        long[] hashes = ref > 0 ? exportHashes : importHashes;
+        int[] lengths = ref > 0 ? exportLengths : importLengths;
+        int i = ref > 0 ? ref - 1 : -ref - 1;
+        if (lengths[i] >= 0) {
+            return hashes[i];
+        }
+
+        String name = names.get(unrealPackage.objectNameReference(ref)).getName();
+        int pckg = unrealPackage.objectPackageReference(ref);
+        long h;
+        int length;
+        if (pckg == 0) {
+            h = hash(0, name);
+            length = name.length();
+        } else {
+            h = hash(hash(innerHash(pckg), '.'), name);
+            length = innerLength(pckg) + 1 + name.length();
+        }
+        hashes[i] = h;
+        lengths[i] = length;
+        return h;
+    }
+
+    private int innerLength(int ref) {
+        return ref > 0 ? exportLengths[ref - 1] : importLengths[-ref - 1];
+    }
+
+    /**
+     * @return {@code true} if {@code entry} is the indexed entry for its reference
+     */
+    boolean contains(UnrealPackage.Entry<?> entry) {
+        int ref = entry.getObjectReference();
+        List<? extends UnrealPackage.Entry<?>> table = ref > 0 ? exports : imports;
+        int i = ref > 0 ? ref - 1 : -ref - 1;
+        return i < table.size() && table.get(i) == entry;
+    }
+
+    long innerPathHash(int ref) {
+        return innerHash(ref);
+    }
+
+    int innerPathLength(int ref) {
+        innerHash(ref);
+        return innerLength(ref);
+    }
+
+    /**
+     * @return hash of {@code "<package>.<inner path>"}
+     */
+    long exportFullPathHash(long innerHash, int innerLength) {
+        return packagePrefixHash * pow(innerLength) + innerHash;
+    }
+
+    boolean isValid() {
+        return names == unrealPackage.getNameTable() &&
+                imports == unrealPackage.getImportTable() &&
+                exports == unrealPackage.getExportTable();
+    }
+
+    /**
+     * @return import reference (negative) or 0
+     */
+    int findImport(String path, IntPredicate filter) {
+        return importPaths.find(hash(0, path), ref -> innerPathMatches(ref, path, 0, path.length()) && filter.test(ref));
+    }
+
+    /**
+     * @return export reference (positive) or 0
+     */
+    int findExport(String path, IntPredicate filter) {
+        long h = hash(0, path);
+        int ref = exportFullPaths.find(h, r -> fullPathMatches(r, path) && filter.test(r));
+        if (ref == 0) {
+            ref = exportInnerPaths.find(h, r -> innerPathMatches(r, path, 0, path.length()) && filter.test(r));
+        }
+        return ref;
+    }
+
+    private boolean fullPathMatches(int ref, String path) {
+        int len = packageName.length();
+        return path.length() > len &&
+                path.charAt(len) == '.' &&
+                path.regionMatches(true, 0, packageName, 0, len) &&
+                innerPathMatches(ref, path, len + 1, path.length());
+    }
+
+    /**
+     * @return {@code true} if {@code path[base, end)} equals inner path of {@code ref} ignoring case
+     */
+    private boolean innerPathMatches(int ref, String path, int base, int end) {
+        while (true) {
+            if (end - base != innerLength(ref)) {
+                return false;
+            }
+
+            String name = names.get(unrealPackage.objectNameReference(ref)).getName();
+            int start = end - name.length();
+            if (!path.regionMatches(true, start, name, 0, name.length())) {
+                return false;
+            }
+            int pckg = unrealPackage.objectPackageReference(ref);
+            if (pckg == 0) {
+                return true;
+            }
+            if (path.charAt(start - 1) != '.') {
+                return false;
+            }
+            ref = pckg;
+            end = start - 1;
+        }
+    }
+
+    private static final class Table {
+        private final long[] hashes;
+        private final int[] refs;
+        private final int mask;
+
+        Table(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+            this.hashes = new long[capacity];
+            this.refs = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int slot(long hash) {
+            return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        void add(long hash, int ref) {
+            int slot = slot(hash);
+            while (refs[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            refs[slot] = ref;
+        }
+
+        int find(long hash, IntPredicate accept) {
+            for (int slot = slot(hash); refs[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && accept.test(refs[slot])) {
+                    return refs[slot];
+                }
+            }
+            return 0;
+        }
+    }
+}
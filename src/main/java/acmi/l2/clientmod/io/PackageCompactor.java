@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Rewrites package without holes and stale tables.
+ * <p>
+ * Live export data is streamed from the source file in requested order, using channel transfers when
+ * source and target crypt keys match, followed by freshly written name, import and export tables.
+ * Only tables are held in memory.
+ */
+public class PackageCompactor {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final int CRYPT_HEADER_SIZE = 28;
+
+    private final int bufferSize;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    public PackageCompactor() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public PackageCompactor(int bufferSize) {
+        if (bufferSize < 8) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+
+        this.bufferSize = bufferSize;
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(this.bufferSize));
+    }
+
+    /**
+     * Compacts {@code file} in place keeping export data order.
+     *
+     * @return number of bytes reclaimed
+     */
+    public long compact(Path file) throws UncheckedIOException {
+        return compact(file, file, null);
+    }
+
+    /**
+     * Writes compacted copy of {@code source} to {@code target}, keeping crypt version of {@code source}.
+     * Output is written to a temporary file next to {@code target} and moved over it when complete,
+     * keeping POSIX permissions of the replaced file.
+     *
+     * @param order export data order, {@code null} to keep current order
+     * @return number of bytes reclaimed
+     */
+    public long compact(Path source, Path target, Comparator<UnrealPackage.ExportEntry> order) throws UncheckedIOException {
+        try {
+            long sourceSize;
+            long targetSize;
+            try (ReplacementFile tmp = new ReplacementFile(target)) {
+                try (UnrealPackage up = new UnrealPackage(source.toFile(), true);
+                     FileChannel in = FileChannel.open(source, READ)) {
+                    RandomAccessFile file = (RandomAccessFile) up.getFile();
+                    int cryptVer = file.getCryptVersion();
+                    CryptCodec targetCodec = CryptCodec.of(cryptVer, target.getFileName().toString());
+                    CryptCodec codec = file.getCryptCodec().andThen(targetCodec);
+                    long base = cryptVer != 0 ? CRYPT_HEADER_SIZE : 0;
+                    sourceSize = in.size();
+
+                    List<UnrealPackage.ExportEntry> exports = up.getExportTable();
+                    List<UnrealPackage.ExportEntry> sorted = new ArrayList<>(exports);
+                    sorted.sort(order != null ? order : Comparator.comparingInt(UnrealPackage.ExportEntry::getOffset));
+
+                    // layout, entries sharing data keep sharing it
+                    int[] offsets = new int[exports.size()];
+                    Map<Long, Integer> placed = new HashMap<>();
+                    List<long[]> copies = new ArrayList<>();
+                    int position = up.headerEndOffset;
+                    for (UnrealPackage.ExportEntry entry : sorted) {
+                        if (entry.getSize() <= 0) {
+                            continue;
+                        }
+
+                        Integer offset = placed.putIfAbsent((long) entry.getOffset() << 32 | entry.getSize(), position);
+                        if (offset != null) {
+                            offsets[entry.getIndex()] = offset;
+                            continue;
+                        }
+
+                        offsets[entry.getIndex()] = position;
+                        long[] last = copies.isEmpty() ? null : copies.get(copies.size() - 1);
+                        if (last != null && last[0] + last[1] == entry.getOffset()) {
+                            last[1] += entry.getSize();
+                        } else {
+                            copies.add(new long[]{entry.getOffset(), entry.getSize()});
+                        }
+                        position += entry.getSize();
+                    }
+                    for (UnrealPackage.ExportEntry entry : exports) {
+                        if (entry.getSize() <= 0) {
+                            offsets[entry.getIndex()] = position;
+                        }
+                    }
+
+                    byte[] header = writeHeaderAndTables(up, offsets, position);
+
+                    try (FileChannel out = FileChannel.open(tmp.create(), WRITE)) {
+                        if (cryptVer != 0) {
+                            write(out, ByteBuffer.wrap(("Lineage2Ver" + cryptVer).getBytes(UTF_16LE)));
+                        }
+                        targetCodec.apply(header, 0, header.length);
+                        write(out, ByteBuffer.wrap(header, 0, up.headerEndOffset));
+                        for (long[] copy : copies) {
+                            copy(in, base + copy[0], copy[1], out, codec);
+                        }
+                        write(out, ByteBuffer.wrap(header, up.headerEndOffset, header.length - up.headerEndOffset));
+                        targetSize = out.size();
+                    }
+                }
+
+                tmp.commit(source);
+            }
+
+            return sourceSize - targetSize;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return plain package header followed by tables, tables are placed at {@code dataEnd} in output file
+     */
+    private static byte[] writeHeaderAndTables(UnrealPackage up, int[] offsets, int dataEnd) throws UncheckedIOException {
+        int headerEnd = up.headerEndOffset;
+        byte[] header = new byte[headerEnd];
+        up.getFile().setPosition(0);
+        up.getFile().readFully(header);
+
+        List<UnrealPackage.ExportEntry> exports = up.getExportTable();
+        List<UnrealPackage.ExportEntry> exportTable = new ArrayList<>(exports.size());
+        for (UnrealPackage.ExportEntry entry : exports) {
+            exportTable.add(new UnrealPackage.ExportEntry(up, entry.getIndex(),
+                    entry.objectClassRef(),
+                    entry.objectSuperClassRef(),
+                    entry.objectPackage,
+                    entry.objectName,
+                    entry.getObjectFlags(),
+                    entry.getSize(),
+                    offsets[entry.getIndex()]));
+        }
+
+        RandomAccessMemory memory = new RandomAccessMemory(up.getPackageName(), header, up.getFile().getCharset());
+        UnrealPackage writer = new UnrealPackage(memory, true);
+        int shift = dataEnd - headerEnd;
+
+        memory.setPosition(headerEnd);
+        writer.writeNameTable(up.getNameTable());
+        int importTablePosition = memory.getPosition();
+        writer.writeImportTable(up.getImportTable());
+        int exportTablePosition = memory.getPosition();
+        writer.writeExportTable(exportTable);
+        memory.trimToPosition();
+
+        memory.setPosition(UnrealPackage.NAME_COUNT_OFFSET);
+        memory.writeInt(up.getNameTable().size());
+        memory.writeInt(headerEnd + shift);
+        memory.writeInt(exportTable.size());
+        memory.writeInt(exportTablePosition + shift);
+        memory.writeInt(up.getImportTable().size());
+        memory.writeInt(importTablePosition + shift);
+
+        byte[] result = new byte[memory.length()];
+        memory.setPosition(0);
+        memory.readFully(result);
+        return result;
+    }
+
+    private void copy(FileChannel in, long pos, long size, FileChannel out, CryptCodec codec) throws IOException {
+        long end = pos + size;
+        if (codec.isIdentity()) {
+            while (pos < end) {
+                pos += in.transferTo(pos, end - pos, out);
+            }
+            return;
+        }
+
+        ByteBuffer buffer = buffers.get();
+        while (pos < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - pos));
+            int read = in.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            pos += read;
+            buffer.flip();
+            codec.apply(buffer);
+            write(out, buffer);
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
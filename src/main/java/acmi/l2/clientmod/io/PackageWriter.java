@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Objects;
+import java.util.UUID;
+
+import static acmi.l2.clientmod.io.ByteUtil.uuidToBytes;
+import static acmi.l2.clientmod.io.UnrealPackage.*;
+
+/**
+ * Builds new package in one forward pass.
+ * <p>
+ * Export data is written as soon as export is added, tables are kept in memory and written
+ * by {@link #finish()}, which then patches header counts and offsets.
+ */
+public final class PackageWriter implements AutoCloseable {
+    private static final int NONE_FLAGS = 0x04070410;
+
+    private final RandomAccess randomAccess;
+    private final ChannelOutput channel;
+    private final DataOutput out;
+
+    private final int version;
+    private final int license;
+    private final UUID guid;
+
+    private final TableBuilder tables = new TableBuilder() {
+        @Override
+        void packageExportAdded(int index, byte[] data) throws UncheckedIOException {
+            int offset = out.getPosition();
+            writeData(data);
+            setExportData(index, data.length, offset);
+        }
+    };
+
+    private byte[] buffer;
+    private boolean finished;
+    private boolean failed;
+
+    /**
+     * Package is written from position 0 of {@code randomAccess}.
+     */
+    public PackageWriter(RandomAccess randomAccess, int version, int license) throws UncheckedIOException {
+        this.randomAccess = Objects.requireNonNull(randomAccess);
+        this.channel = null;
+        this.out = randomAccess;
+        this.version = version;
+        this.license = license;
+        this.guid = UUID.randomUUID();
+
+        randomAccess.setPosition(0);
+        start();
+    }
+
+    /**
+     * Package is written from current position of {@code channel}, which is left open.
+     */
+    public PackageWriter(SeekableByteChannel channel, Charset charset, int version, int license) throws UncheckedIOException {
+        this.randomAccess = null;
+        this.channel = new ChannelOutput(channel, charset);
+        this.out = this.channel;
+        this.version = version;
+        this.license = license;
+        this.guid = UUID.randomUUID();
+
+        start();
+    }
+
+    private void start() throws UncheckedIOException {
+        out.writeBytes(header(0, 0, 0, 0, 0, 0));
+        tables.addName("None", NONE_FLAGS);
+    }
+
+    private byte[] header(int nameCount, int nameOffset, int exportCount, int exportOffset, int importCount, int importOffset) {
+        byte[] data = new byte[HEADER_SIZE];
+
+        ByteBuffer header = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(UNREAL_PACKAGE_MAGIC);
+        header.putShort((short) version);
+        header.putShort((short) license);
+        header.putInt(1);
+        header.putInt(nameCount);
+        header.putInt(nameOffset);
+        header.putInt(exportCount);
+        header.putInt(exportOffset);
+        header.putInt(importCount);
+        header.putInt(importOffset);
+        header.put(uuidToBytes(guid));
+
+        return data;
+    }
+
+    /**
+     * @return name index ignoring case, -1 if not found
+     */
+    public int nameReference(String name) {
+        return tables.nameReference(name);
+    }
+
+    public int addName(String name) {
+        return addName(name, DEFAULT_NAME_FLAGS);
+    }
+
+    /**
+     * @return index of existing name ignoring case or of added one
+     */
+    public int addName(String name, int flags) {
+        checkState();
+
+        return tables.addName(name, flags);
+    }
+
+    /**
+     * @param objectName full object name, e.g. {@code Engine.Actor}
+     * @param className  full class name, e.g. {@code Core.Class}
+     * @return object reference of existing or added import
+     */
+    public int addImport(String objectName, String className) {
+        checkState();
+
+        return tables.addImport(objectName, className);
+    }
+
+    /**
+     * Adds export and writes its data, data of already added export is ignored.
+     *
+     * @param objectClass      full class name, class import is added if not found, {@code null} for class
+     * @param objectSuperClass full super class name or {@code null}
+     * @return object reference of existing or added export
+     */
+    public int addExport(String objectName, String objectClass, String objectSuperClass, byte[] data, int flags) throws UncheckedIOException {
+        checkState();
+
+        return addExport(objectName, tables.classReference(objectClass), tables.classReference(objectSuperClass), data, flags);
+    }
+
+    /**
+     * @param objectClass      object reference of class, 0 for class
+     * @param objectSuperClass object reference of super class or 0
+     */
+    public int addExport(String objectName, int objectClass, int objectSuperClass, byte[] data, int flags) throws UncheckedIOException {
+        checkState();
+
+        String[] namePath = objectName.split("\\.");
+        int pckg = tables.exportPackage(namePath, DEFAULT_OBJECT_FLAGS);
+        int name = addName(namePath[namePath.length - 1]);
+        int ref = tables.exportReference(objectClass, objectSuperClass, pckg, name);
+        if (ref != 0) {
+            return ref;
+        }
+
+        int offset = out.getPosition();
+        writeData(data);
+        return tables.appendExport(objectClass, objectSuperClass, pckg, name, flags, data.length, offset) + 1;
+    }
+
+    /**
+     * Same as {@link #addExport(String, String, String, byte[], int)}, data is copied from {@code data} until its end.
+     */
+    public int addExport(String objectName, String objectClass, String objectSuperClass, InputStream data, int flags) throws UncheckedIOException {
+        checkState();
+
+        int objectClassRef = tables.classReference(objectClass);
+        int objectSuperClassRef = tables.classReference(objectSuperClass);
+        String[] namePath = objectName.split("\\.");
+        int pckg = tables.exportPackage(namePath, DEFAULT_OBJECT_FLAGS);
+        int name = addName(namePath[namePath.length - 1]);
+        int ref = tables.exportReference(objectClassRef, objectSuperClassRef, pckg, name);
+        if (ref != 0) {
+            return ref;
+        }
+
+        if (buffer == null) {
+            buffer = new byte[1 << 16];
+        }
+        int offset = out.getPosition();
+        try {
+            for (int read; (read = data.read(buffer)) >= 0; ) {
+                out.writeBytes(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+        return tables.appendExport(objectClassRef, objectSuperClassRef, pckg, name, flags, out.getPosition() - offset, offset) + 1;
+    }
+
+    /**
+     * Writes name, import and export tables and patches header.
+     */
+    public void finish() throws UncheckedIOException {
+        checkState();
+        finished = true;
+
+        int[] tableOffsets = tables.writeTables(out);
+
+        byte[] header = header(tables.nameCount(), tableOffsets[0], tables.exportCount(), tableOffsets[2], tables.importCount(), tableOffsets[1]);
+        if (randomAccess != null) {
+            int end = randomAccess.getPosition();
+            randomAccess.trimToPosition();
+            randomAccess.setPosition(0);
+            randomAccess.writeBytes(header);
+            randomAccess.setPosition(end);
+            randomAccess.flush();
+        } else {
+            channel.flush();
+            channel.patch(0, header);
+        }
+    }
+
+    /**
+     * Finishes package if {@link #finish()} was not called and no export data write failed,
+     * otherwise header is left empty. Output is not closed.
+     */
+    @Override
+    public void close() throws UncheckedIOException {
+        if (!finished && !failed) {
+            finish();
+        }
+    }
+
+    private void checkState() {
+        if (finished) {
+            throw new IllegalStateException("Package already finished");
+        }
+        if (failed) {
+            throw new IllegalStateException("Export data write failed");
+        }
+    }
+
+    private void writeData(byte[] data) throws UncheckedIOException {
+        try {
+            out.writeBytes(data);
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Buffered sequential output to channel, positions are relative to initial channel position.
+     */
+    private static final class ChannelOutput implements DataOutput {
+        private final SeekableByteChannel channel;
+        private final Charset charset;
+        private final long base;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private int position;
+
+        ChannelOutput(SeekableByteChannel channel, Charset charset) throws UncheckedIOException {
+            try {
+                this.channel = channel;
+                this.charset = charset;
+                this.base = channel.position();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void writeByte(int b) throws UncheckedIOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+            position++;
+        }
+
+        @Override
+        public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+            ByteUtil.checkBounds(b.length, off, len);
+
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+                position += n;
+            }
+        }
+
+        @Override
+        public Charset getCharset() {
+            return charset;
+        }
+
+        @Override
+        public int getPosition() {
+            return position;
+        }
+
+        void flush() throws UncheckedIOException {
+            try {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void patch(int position, byte[] data) throws UncheckedIOException {
+            try {
+                long end = channel.position();
+                channel.position(base + position);
+                ByteBuffer src = ByteBuffer.wrap(data);
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+                channel.position(end);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -32,6 +32,9 @@ public interface RandomAccess extends DataInput, DataOutput, AutoCloseable {
 
     void trimToPosition() throws UncheckedIOException;
 
+    default void flush() throws UncheckedIOException {
+    }
+
     RandomAccess openNewSession(boolean readOnly) throws UncheckedIOException;
 
     void close() throws UncheckedIOException;
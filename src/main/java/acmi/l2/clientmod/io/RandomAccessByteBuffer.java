@@ -5,6 +5,7 @@ import java.io.UncheckedIOException;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.ReadOnlyBufferException;
 import java.nio.charset.Charset;
 
@@ -41,6 +42,10 @@ public class RandomAccessByteBuffer implements RandomAccess {
         buffer.position(pos - position);
     }
 
+    public int length() {
+        return position + buffer.limit();
+    }
+
     @Override
     public void trimToPosition() {
         buffer.limit(buffer.position());
@@ -55,6 +60,149 @@ public class RandomAccessByteBuffer implements RandomAccess {
         }
     }
 
+    @Override
+    public void skip(int n) throws UncheckedIOException {
+        if (n <= 0) {
+            return;
+        }
+        if (buffer.remaining() < n) {
+            throw new UncheckedIOException(new IOException(new BufferUnderflowException()));
+        }
+
+        buffer.position(buffer.position() + n);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        try {
+            buffer.get(b, off, len);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    private boolean isLittleEndian() {
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN;
+    }
+
+    private ByteBuffer littleEndianView() {
+        return isLittleEndian() ? buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        try {
+            short val = buffer.getShort();
+            return (isLittleEndian() ? val : Short.reverseBytes(val)) & 0xffff;
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        try {
+            int val = buffer.getInt();
+            return isLittleEndian() ? val : Integer.reverseBytes(val);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        int position = buffer.position();
+        if (buffer.remaining() < ByteUtil.MAX_COMPACT_INT_SIZE) {
+            return RandomAccess.super.readCompactInt();
+        }
+
+        int val = ByteUtil.getCompactInt(buffer, position);
+        buffer.position(position + ByteUtil.compactIntLength(buffer, position));
+        return val;
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        try {
+            long val = buffer.getLong();
+            return isLittleEndian() ? val : Long.reverseBytes(val);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void readShorts(short[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+
+        try {
+            littleEndianView().asShortBuffer().get(dst, off, len);
+            buffer.position(buffer.position() + len * 2);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void readInts(int[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+
+        try {
+            littleEndianView().asIntBuffer().get(dst, off, len);
+            buffer.position(buffer.position() + len * 4);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void readFloats(float[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+
+        try {
+            littleEndianView().asFloatBuffer().get(dst, off, len);
+            buffer.position(buffer.position() + len * 4);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void writeShorts(short[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+
+        try {
+            littleEndianView().asShortBuffer().put(src, off, len);
+            buffer.position(buffer.position() + len * 2);
+        } catch (BufferOverflowException | ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void writeInts(int[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+
+        try {
+            littleEndianView().asIntBuffer().put(src, off, len);
+            buffer.position(buffer.position() + len * 4);
+        } catch (BufferOverflowException | ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void writeFloats(float[] src, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(src.length, off, len);
+
+        try {
+            littleEndianView().asFloatBuffer().put(src, off, len);
+            buffer.position(buffer.position() + len * 4);
+        } catch (BufferOverflowException | ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
     @Override
     public void writeByte(int b) throws UncheckedIOException {
         try {
@@ -64,6 +212,58 @@ public class RandomAccessByteBuffer implements RandomAccess {
         }
     }
 
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        try {
+            buffer.put(b, off, len);
+        } catch (BufferOverflowException | ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void writeShort(int val) throws UncheckedIOException {
+        try {
+            buffer.putShort(isLittleEndian() ? (short) val : Short.reverseBytes((short) val));
+        } catch (BufferOverflowException | ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void writeInt(int val) throws UncheckedIOException {
+        try {
+            buffer.putInt(isLittleEndian() ? val : Integer.reverseBytes(val));
+        } catch (BufferOverflowException | ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void writeCompactInt(int val) throws UncheckedIOException {
+        int n = ByteUtil.sizeOfCompactInt(val);
+        if (buffer.remaining() < n) {
+            throw new UncheckedIOException(new IOException(new BufferOverflowException()));
+        }
+
+        try {
+            int position = buffer.position();
+            ByteUtil.putCompactInt(buffer, position, val);
+            buffer.position(position + n);
+        } catch (ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    @Override
+    public void writeLong(long val) throws UncheckedIOException {
+        try {
+            buffer.putLong(isLittleEndian() ? val : Long.reverseBytes(val));
+        } catch (BufferOverflowException | ReadOnlyBufferException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
     @Override
     public RandomAccess openNewSession(boolean readOnly) {
         return this;
@@ -25,22 +25,41 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.security.AccessControlException;
 
 import static java.nio.charset.StandardCharsets.UTF_16LE;
 
 public class RandomAccessFile implements RandomAccess {
+    private static int writeBufferSize = 1 << 13;
+
+    static {
+        try {
+            writeBufferSize = Integer.parseInt(System.getProperty("RandomAccessFile.writeBufferSize", String.valueOf(writeBufferSize)));
+        } catch (AccessControlException | NumberFormatException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
     protected final java.io.RandomAccessFile file;
     private final String packageName;
     private final String path;
 
     private final int cryptVer;
     protected final int xorKey;
+    protected final CryptCodec codec;
     protected final int startOffset;
 
     private final Charset charset;
 
+    private final byte[] writeBuffer;
+    private long writeStart;
+    private int writeCount;
+
+    private final byte[] scratch = new byte[8];
+
     public RandomAccessFile(File f, boolean readOnly, Charset charset) throws UncheckedIOException {
         try {
             file = new java.io.RandomAccessFile(f, readOnly ? "r" : "rw");
@@ -51,24 +70,16 @@ public class RandomAccessFile implements RandomAccess {
             if (file.length() >= 28 && (l2CryptHeader = getCryptHeader(file)).startsWith("Lineage2Ver")) {
                 startOffset = 28;
                 cryptVer = Integer.parseInt(l2CryptHeader.substring(11));
-                switch (cryptVer) {
-                    case 111:
-                        xorKey = 0xACACACAC;
-                        break;
-                    case 121:
-                        int xb = getCryptKey(f.getName());
-                        xorKey = xb | (xb << 8) | (xb << 16) | (xb << 24);
-                        break;
-                    default:
-                        throw new IOException("Crypt " + cryptVer + " is not supported.");
-                }
+                codec = CryptCodec.of(cryptVer, f.getName());
             } else {
                 startOffset = 0;
                 cryptVer = 0;
-                xorKey = 0;
+                codec = CryptCodec.NONE;
             }
+            xorKey = codec.getKey();
 
             this.charset = charset;
+            this.writeBuffer = !readOnly && writeBufferSize > 0 ? new byte[writeBufferSize] : null;
 
             setPosition(0);
         } catch (IOException e) {
@@ -86,13 +97,14 @@ public class RandomAccessFile implements RandomAccess {
         return new String(l2CryptHeaderBytes, UTF_16LE);
     }
 
-    private static int getCryptKey(String filename) {
-        filename = filename.toLowerCase();
-        int ind = 0;
-        for (int i = 0; i < filename.length(); i++) {
-            ind += filename.charAt(i);
+    static String getCryptHeader(FileChannel channel) throws IOException {
+        ByteBuffer l2CryptHeaderBytes = ByteBuffer.allocate(28);
+        while (l2CryptHeaderBytes.hasRemaining()) {
+            if (channel.read(l2CryptHeaderBytes, l2CryptHeaderBytes.position()) < 0) {
+                throw new EOFException();
+            }
         }
-        return ind & 0xff;
+        return new String(l2CryptHeaderBytes.array(), UTF_16LE);
     }
 
     @Override
@@ -108,6 +120,10 @@ public class RandomAccessFile implements RandomAccess {
         return cryptVer;
     }
 
+    public CryptCodec getCryptCodec() {
+        return codec;
+    }
+
     @Override
     public Charset getCharset() {
         return charset;
@@ -116,7 +132,14 @@ public class RandomAccessFile implements RandomAccess {
     @Override
     public void setPosition(int pos) throws UncheckedIOException {
         try {
-            file.seek(pos + startOffset);
+            long filePointer = pos + startOffset;
+            if (writeCount > 0) {
+                if (filePointer == writeStart + writeCount) {
+                    return;
+                }
+                flushWriteBuffer();
+            }
+            file.seek(filePointer);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -125,7 +148,19 @@ public class RandomAccessFile implements RandomAccess {
     @Override
     public int getPosition() throws UncheckedIOException {
         try {
-            return (int) file.getFilePointer() - startOffset;
+            return (int) (writeCount > 0 ? writeStart + writeCount : file.getFilePointer()) - startOffset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int length() throws UncheckedIOException {
+        try {
+            long length = file.length();
+            if (writeCount > 0) {
+                length = Math.max(length, writeStart + writeCount);
+            }
+            return (int) length - startOffset;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -134,6 +169,7 @@ public class RandomAccessFile implements RandomAccess {
     @Override
     public void trimToPosition() throws UncheckedIOException {
         try {
+            flushWriteBuffer();
             file.setLength(file.getFilePointer());
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -143,17 +179,43 @@ public class RandomAccessFile implements RandomAccess {
     @Override
     public void skip(int n) throws UncheckedIOException {
         try {
+            flushWriteBuffer();
             file.seek(file.getFilePointer() + n);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Writes buffered data to the file.
+     */
+    @Override
+    public void flush() throws UncheckedIOException {
+        try {
+            flushWriteBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        if (writeCount == 0) {
+            return;
+        }
+
+        file.write(writeBuffer, 0, writeCount);
+        writeStart += writeCount;
+        writeCount = 0;
+    }
 
     @Override
     public void close() throws UncheckedIOException {
         try {
-            file.close();
+            try {
+                flushWriteBuffer();
+            } finally {
+                file.close();
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -162,6 +224,8 @@ public class RandomAccessFile implements RandomAccess {
     @Override
     public int readUnsignedByte() throws UncheckedIOException {
         try {
+            flushWriteBuffer();
+
             if (cryptVer != 0) {
                 int b = file.read();
                 if (b < 0) {
@@ -180,26 +244,71 @@ public class RandomAccessFile implements RandomAccess {
     @Override
     public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
         try {
+            flushWriteBuffer();
+
             file.readFully(b, off, len);
 
-            if (cryptVer != 0) {
-                for (int i = 0; i < len; i++) {
-                    b[off + i] ^= xorKey;
-                }
-            }
+            codec.apply(b, off, len);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        readFully(scratch, 0, 2);
+        return ByteUtil.getUnsignedShort(scratch, 0);
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        readFully(scratch, 0, 4);
+        return ByteUtil.getInt(scratch, 0);
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        readFully(scratch, 0, 8);
+        return ByteUtil.getLong(scratch, 0);
+    }
+
+    @Override
+    public void writeCompactInt(int val) throws UncheckedIOException {
+        writeBytes(scratch, 0, ByteUtil.putCompactInt(scratch, 0, val));
+    }
+
+    @Override
+    public void writeShort(int val) throws UncheckedIOException {
+        ByteUtil.putShort(scratch, 0, val);
+        writeBytes(scratch, 0, 2);
+    }
+
+    @Override
+    public void writeInt(int val) throws UncheckedIOException {
+        ByteUtil.putInt(scratch, 0, val);
+        writeBytes(scratch, 0, 4);
+    }
+
+    @Override
+    public void writeLong(long val) throws UncheckedIOException {
+        ByteUtil.putLong(scratch, 0, val);
+        writeBytes(scratch, 0, 8);
+    }
+
     @Override
     public void writeByte(int b) throws UncheckedIOException {
         try {
-            if (cryptVer != 0) {
+            if (writeBuffer == null) {
                 file.write(b ^ xorKey);
-            } else {
-                file.write(b);
+                return;
+            }
+
+            if (writeCount == 0) {
+                writeStart = file.getFilePointer();
+            } else if (writeCount == writeBuffer.length) {
+                flushWriteBuffer();
             }
+            writeBuffer[writeCount++] = (byte) (b ^ xorKey);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -212,14 +321,36 @@ public class RandomAccessFile implements RandomAccess {
         }
 
         try {
-            if (cryptVer != 0) {
-                byte[] toWrite = Arrays.copyOfRange(b, off, off + len);
-                for (int i = 0; i < toWrite.length; i++) {
-                    toWrite[i] ^= xorKey;
+            if (writeBuffer == null) {
+                byte[] toWrite = b;
+                if (cryptVer != 0) {
+                    toWrite = new byte[len];
+                    codec.apply(b, off, toWrite, 0, len);
+                    off = 0;
                 }
-                file.write(toWrite);
-            } else {
+                file.write(toWrite, off, len);
+                return;
+            }
+
+            if (cryptVer == 0 && len >= writeBuffer.length) {
+                flushWriteBuffer();
                 file.write(b, off, len);
+                return;
+            }
+
+            while (len > 0) {
+                if (writeCount == 0) {
+                    writeStart = file.getFilePointer();
+                }
+                int n = Math.min(len, writeBuffer.length - writeCount);
+                System.arraycopy(b, off, writeBuffer, writeCount, n);
+                codec.apply(writeBuffer, writeCount, n);
+                writeCount += n;
+                off += n;
+                len -= n;
+                if (writeCount == writeBuffer.length) {
+                    flushWriteBuffer();
+                }
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -228,6 +359,8 @@ public class RandomAccessFile implements RandomAccess {
 
     @Override
     public RandomAccessFile openNewSession(boolean readOnly) throws UncheckedIOException {
+        flush();
+
         return new RandomAccessFile(getPath(), readOnly, getCharset());
     }
 }
@@ -24,6 +24,7 @@ package acmi.l2.clientmod.io;
 import java.io.EOFException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 
@@ -36,7 +37,7 @@ public class RandomAccessMemory implements RandomAccess {
 
     public RandomAccessMemory(String name, byte[] data, Charset charset) {
         this.name = name;
-        this.buffer = ByteBuffer.wrap(data);
+        this.buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
         this.charset = charset;
     }
 
@@ -66,6 +67,10 @@ public class RandomAccessMemory implements RandomAccess {
         buffer.position(position);
     }
 
+    public int length() {
+        return buffer.limit();
+    }
+
     @Override
     public void trimToPosition() {
         buffer.limit(buffer.position());
@@ -106,6 +111,79 @@ public class RandomAccessMemory implements RandomAccess {
         buffer.get(b, off, len);
     }
 
+    private void checkRemaining(long n) throws UncheckedIOException {
+        if (buffer.remaining() < n) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        checkRemaining(2);
+
+        return buffer.getShort() & 0xffff;
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        checkRemaining(4);
+
+        return buffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        checkRemaining(8);
+
+        return buffer.getLong();
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        int position = buffer.position();
+        if (buffer.limit() - position < ByteUtil.MAX_COMPACT_INT_SIZE) {
+            return RandomAccess.super.readCompactInt();
+        }
+
+        int val = ByteUtil.getCompactInt(buffer, position);
+        buffer.position(position + ByteUtil.compactIntLength(buffer, position));
+        return val;
+    }
+
+    @Override
+    public float readFloat() throws UncheckedIOException {
+        checkRemaining(4);
+
+        return buffer.getFloat();
+    }
+
+    @Override
+    public void readShorts(short[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+        checkRemaining((long) len * 2);
+
+        buffer.asShortBuffer().get(dst, off, len);
+        buffer.position(buffer.position() + len * 2);
+    }
+
+    @Override
+    public void readInts(int[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+        checkRemaining((long) len * 4);
+
+        buffer.asIntBuffer().get(dst, off, len);
+        buffer.position(buffer.position() + len * 4);
+    }
+
+    @Override
+    public void readFloats(float[] dst, int off, int len) throws UncheckedIOException {
+        ByteUtil.checkBounds(dst.length, off, len);
+        checkRemaining((long) len * 4);
+
+        buffer.asFloatBuffer().get(dst, off, len);
+        buffer.position(buffer.position() + len * 4);
+    }
+
     @Override
     public void writeByte(int b) {
         ensureCapacity(buffer.position() + 1);
@@ -123,6 +201,72 @@ public class RandomAccessMemory implements RandomAccess {
         buffer.put(b, off, len);
     }
 
+    @Override
+    public void writeShort(int val) {
+        ensureCapacity(buffer.position() + 2);
+
+        buffer.putShort((short) val);
+    }
+
+    @Override
+    public void writeInt(int val) {
+        ensureCapacity(buffer.position() + 4);
+
+        buffer.putInt(val);
+    }
+
+    @Override
+    public void writeLong(long val) {
+        ensureCapacity(buffer.position() + 8);
+
+        buffer.putLong(val);
+    }
+
+    @Override
+    public void writeCompactInt(int val) {
+        int position = buffer.position();
+        ensureCapacity(position + ByteUtil.sizeOfCompactInt(val));
+
+        buffer.position(position + ByteUtil.putCompactInt(buffer, position, val));
+    }
+
+    @Override
+    public void writeFloat(float val) {
+        ensureCapacity(buffer.position() + 4);
+
+        buffer.putFloat(val);
+    }
+
+    @Override
+    public void writeShorts(short[] src, int off, int len) {
+        ByteUtil.checkBounds(src.length, off, len);
+        int position = buffer.position();
+        ensureCapacity(position + len * 2);
+
+        buffer.asShortBuffer().put(src, off, len);
+        buffer.position(position + len * 2);
+    }
+
+    @Override
+    public void writeInts(int[] src, int off, int len) {
+        ByteUtil.checkBounds(src.length, off, len);
+        int position = buffer.position();
+        ensureCapacity(position + len * 4);
+
+        buffer.asIntBuffer().put(src, off, len);
+        buffer.position(position + len * 4);
+    }
+
+    @Override
+    public void writeFloats(float[] src, int off, int len) {
+        ByteUtil.checkBounds(src.length, off, len);
+        int position = buffer.position();
+        ensureCapacity(position + len * 4);
+
+        buffer.asFloatBuffer().put(src, off, len);
+        buffer.position(position + len * 4);
+    }
+
     private void ensureCapacity(int minCapacity) {
         if (minCapacity > buffer.capacity()) {
             grow(minCapacity);
@@ -146,7 +290,7 @@ public class RandomAccessMemory implements RandomAccess {
         }
         int limit = buffer.limit();
         int position = buffer.position();
-        buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), newCapacity));
+        buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), newCapacity)).order(ByteOrder.LITTLE_ENDIAN);
         buffer.limit(limit);
         buffer.position(position);
     }
@@ -172,4 +316,12 @@ public class RandomAccessMemory implements RandomAccess {
     public void writeTo(DataOutput output) throws UncheckedIOException {
         output.writeBytes(buffer.array(), 0, buffer.limit());
     }
+
+    public void writeTo(DataOutput output, int offset, int length) throws UncheckedIOException {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        output.writeBytes(buffer.array(), offset, length);
+    }
 }
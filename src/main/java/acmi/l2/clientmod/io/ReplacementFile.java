@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Temporary file written next to its target and moved over it when complete.
+ * <p>
+ * Closing without {@link #commit(Path)} deletes the temporary file.
+ */
+final class ReplacementFile implements AutoCloseable {
+    private final Path target;
+    private Path tmp;
+
+    ReplacementFile(Path target) {
+        this.target = target;
+    }
+
+    Path create() throws IOException {
+        tmp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        return tmp;
+    }
+
+    /**
+     * Moves temporary file over target. POSIX permissions are taken from target,
+     * or from {@code source} if target doesn't exist yet.
+     */
+    void commit(Path source) throws IOException {
+        Path permissions = Files.exists(target) ? target : source;
+        if (Files.getFileStore(tmp).supportsFileAttributeView(PosixFileAttributeView.class) &&
+                Files.getFileStore(permissions).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(permissions));
+        }
+
+        Files.move(tmp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+        tmp = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (tmp != null) {
+            Path path = tmp;
+            tmp = null;
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory {@link RandomAccess} built from fixed size segments.
+ * <p>
+ * Unlike {@link RandomAccessMemory} growing never copies data, it just adds segments,
+ * which can be heap or direct buffers.
+ */
+public class SegmentedRandomAccessMemory implements RandomAccess {
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    private final String name;
+    private final Charset charset;
+    private final int segmentSize;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final boolean direct;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+
+    private int length;
+    private int position;
+
+    public SegmentedRandomAccessMemory(String name, Charset charset) {
+        this(name, charset, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    public SegmentedRandomAccessMemory(String name, Charset charset, int segmentSize, boolean direct) {
+        if (segmentSize <= 0 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size must be a power of two: " + segmentSize);
+        }
+
+        this.name = name;
+        this.charset = charset;
+        this.segmentSize = segmentSize;
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        this.segmentMask = segmentSize - 1;
+        this.direct = direct;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+
+        ensureCapacity(position, position);
+
+        this.position = position;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void trimToPosition() {
+        length = position;
+    }
+
+    @Override
+    public void skip(int n) throws UncheckedIOException {
+        if (position + n > length) {
+            throw new UncheckedIOException(new EOFException());
+        }
+
+        position += n;
+    }
+
+    /**
+     * Allocates segments up to {@code minCapacity} and zeroes new bytes before {@code dataStart}
+     * which could have been left from a trimmed tail.
+     */
+    private void ensureCapacity(int minCapacity, int dataStart) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError();
+        }
+
+        while ((long) segments.size() << segmentShift < minCapacity) {
+            segments.add((direct ? ByteBuffer.allocateDirect(segmentSize) : ByteBuffer.allocate(segmentSize))
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+        if (minCapacity > length) {
+            int zeroEnd = Math.min(dataStart, minCapacity);
+            for (int pos = length; pos < zeroEnd; ) {
+                ByteBuffer segment = segments.get(pos >> segmentShift);
+                int offset = pos & segmentMask;
+                int n = Math.min(zeroEnd - pos, segmentSize - offset);
+                for (int i = 0; i < n; i++) {
+                    segment.put(offset + i, (byte) 0);
+                }
+                pos += n;
+            }
+            length = minCapacity;
+        }
+    }
+
+    @Override
+    public int readUnsignedByte() throws UncheckedIOException {
+        if (position >= length) {
+            throw new UncheckedIOException(new EOFException());
+        }
+
+        int b = segments.get(position >> segmentShift).get(position & segmentMask) & 0xff;
+        position++;
+        return b;
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return;
+        }
+
+        if (position > length - len) {
+            throw new UncheckedIOException(new EOFException());
+        }
+
+        while (len > 0) {
+            ByteBuffer segment = segments.get(position >> segmentShift);
+            int offset = position & segmentMask;
+            int n = Math.min(len, segmentSize - offset);
+            segment.position(offset);
+            segment.get(b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private boolean inSegment(int n) {
+        return (position & segmentMask) <= segmentSize - n;
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        if (position > length - 2 || !inSegment(2)) {
+            return RandomAccess.super.readUnsignedShort();
+        }
+
+        int val = segments.get(position >> segmentShift).getShort(position & segmentMask) & 0xffff;
+        position += 2;
+        return val;
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        if (position > length - 4 || !inSegment(4)) {
+            return RandomAccess.super.readInt();
+        }
+
+        int val = segments.get(position >> segmentShift).getInt(position & segmentMask);
+        position += 4;
+        return val;
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        if (position > length - 8 || !inSegment(8)) {
+            return RandomAccess.super.readLong();
+        }
+
+        long val = segments.get(position >> segmentShift).getLong(position & segmentMask);
+        position += 8;
+        return val;
+    }
+
+    @Override
+    public int readCompactInt() throws UncheckedIOException {
+        if (position > length - ByteUtil.MAX_COMPACT_INT_SIZE || !inSegment(ByteUtil.MAX_COMPACT_INT_SIZE)) {
+            return RandomAccess.super.readCompactInt();
+        }
+
+        ByteBuffer segment = segments.get(position >> segmentShift);
+        int index = position & segmentMask;
+        int val = ByteUtil.getCompactInt(segment, index);
+        position += ByteUtil.compactIntLength(segment, index);
+        return val;
+    }
+
+    @Override
+    public void writeCompactInt(int val) {
+        int n = ByteUtil.sizeOfCompactInt(val);
+        if (!inSegment(n)) {
+            RandomAccess.super.writeCompactInt(val);
+            return;
+        }
+
+        ensureCapacity(position + n, position);
+        ByteUtil.putCompactInt(segments.get(position >> segmentShift), position & segmentMask, val);
+        position += n;
+    }
+
+    @Override
+    public void writeShort(int val) {
+        if (!inSegment(2)) {
+            RandomAccess.super.writeShort(val);
+            return;
+        }
+
+        ensureCapacity(position + 2, position);
+        segments.get(position >> segmentShift).putShort(position & segmentMask, (short) val);
+        position += 2;
+    }
+
+    @Override
+    public void writeInt(int val) {
+        if (!inSegment(4)) {
+            RandomAccess.super.writeInt(val);
+            return;
+        }
+
+        ensureCapacity(position + 4, position);
+        segments.get(position >> segmentShift).putInt(position & segmentMask, val);
+        position += 4;
+    }
+
+    @Override
+    public void writeLong(long val) {
+        if (!inSegment(8)) {
+            RandomAccess.super.writeLong(val);
+            return;
+        }
+
+        ensureCapacity(position + 8, position);
+        segments.get(position >> segmentShift).putLong(position & segmentMask, val);
+        position += 8;
+    }
+
+    @Override
+    public void writeByte(int b) {
+        ensureCapacity(position + 1, position);
+
+        segments.get(position >> segmentShift).put(position & segmentMask, (byte) b);
+        position++;
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        if ((off < 0) || (off > b.length) || (len < 0) ||
+                ((off + len) - b.length > 0)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(position + len, position);
+
+        while (len > 0) {
+            ByteBuffer segment = segments.get(position >> segmentShift);
+            int offset = position & segmentMask;
+            int n = Math.min(len, segmentSize - offset);
+            segment.position(offset);
+            segment.put(b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public RandomAccess openNewSession(boolean readOnly) {
+        return this;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public void writeTo(DataOutput output) throws UncheckedIOException {
+        byte[] chunk = direct ? new byte[Math.min(segmentSize, 1 << 16)] : null;
+        for (int pos = 0; pos < length; ) {
+            ByteBuffer segment = segments.get(pos >> segmentShift);
+            int n = Math.min(length - pos, segmentSize);
+            if (segment.hasArray()) {
+                output.writeBytes(segment.array(), segment.arrayOffset(), n);
+            } else {
+                for (int offset = 0; offset < n; offset += chunk.length) {
+                    int chunkSize = Math.min(n - offset, chunk.length);
+                    segment.position(offset);
+                    segment.get(chunk, 0, chunkSize);
+                    output.writeBytes(chunk, 0, chunkSize);
+                }
+            }
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Per-thread charset coders and scratch buffers for {@link DataInput#readLine()} and
+ * {@link DataOutput#writeLine(String)}.
+ */
+final class StringCodec {
+    private static final ThreadLocal<StringCodec> LOCAL = ThreadLocal.withInitial(StringCodec::new);
+
+    /**
+     * Scratch buffers grown past this size are not kept between calls.
+     */
+    private static final int MAX_RETAINED_SIZE = 0x10000;
+
+    private static final CharBuffer TERMINATOR = CharBuffer.wrap("\0").asReadOnlyBuffer();
+
+    private static final long ASCII_MASK = 0x8080808080808080L;
+
+    private static final Map<Charset, Boolean> ASCII_COMPATIBLE = new ConcurrentHashMap<>();
+
+    private final Map<Charset, CharsetEncoder> encoders = new HashMap<>();
+    private final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+    private Charset lastEncoderCharset;
+    private CharsetEncoder lastEncoder;
+    private Charset lastDecoderCharset;
+    private CharsetDecoder lastDecoder;
+
+    private byte[] bytes = new byte[256];
+    private char[] chars = new char[256];
+
+    private StringCodec() {
+    }
+
+    static StringCodec get() {
+        return LOCAL.get();
+    }
+
+    private CharsetEncoder encoder(Charset charset) {
+        if (charset != lastEncoderCharset) {
+            lastEncoder = encoders.computeIfAbsent(charset, cs -> cs.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT));
+            lastEncoderCharset = charset;
+        }
+        return lastEncoder.reset();
+    }
+
+    private CharsetDecoder decoder(Charset charset) {
+        if (charset != lastDecoderCharset) {
+            lastDecoder = decoders.computeIfAbsent(charset, cs -> cs.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+            lastDecoderCharset = charset;
+        }
+        return lastDecoder.reset();
+    }
+
+    /**
+     * @return {@code true} if bytes 0x00-0x7F encode and decode as US-ASCII in {@code charset} without any state
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        return ASCII_COMPATIBLE.computeIfAbsent(charset, cs -> {
+            if (!cs.canEncode()) {
+                return false;
+            }
+
+            byte[] ascii = new byte[0x80];
+            for (int i = 0; i < ascii.length; i++) {
+                ascii[i] = (byte) i;
+            }
+            String s = new String(ascii, ISO_8859_1);
+            return s.equals(new String(ascii, cs)) && Arrays.equals(ascii, s.getBytes(cs));
+        });
+    }
+
+    static boolean isAscii(byte[] b, int off, int len) {
+        int i = 0;
+        if (len >= 8) {
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+            long bits = 0;
+            for (int end = len - 7; i < end; i += 8) {
+                bits |= buffer.getLong(off + i);
+            }
+            if ((bits & ASCII_MASK) != 0) {
+                return false;
+            }
+        }
+        int bits = 0;
+        for (; i < len; i++) {
+            bits |= b[off + i];
+        }
+        return bits >= 0;
+    }
+
+    /**
+     * @return scratch array of at least {@code size} bytes, valid until the next call on this thread
+     */
+    byte[] bytes(int size) {
+        if (size <= bytes.length) {
+            return bytes;
+        }
+
+        byte[] b = new byte[Math.max(size, bytes.length * 2)];
+        if (size <= MAX_RETAINED_SIZE) {
+            bytes = b;
+        }
+        return b;
+    }
+
+    private char[] chars(int size) {
+        if (size <= chars.length) {
+            return chars;
+        }
+
+        char[] c = new char[Math.max(size, chars.length * 2)];
+        if (size <= MAX_RETAINED_SIZE) {
+            chars = c;
+        }
+        return c;
+    }
+
+    /**
+     * Encodes {@code s} followed by a zero terminator in a single pass.
+     *
+     * @return zero-terminated bytes, valid until the next call on this thread, or {@code null}
+     * if {@code charset} cannot encode {@code s}
+     */
+    ByteBuffer encodeLine(String s, Charset charset) {
+        if (!charset.canEncode()) {
+            return null;
+        }
+
+        if (isAsciiCompatible(charset)) {
+            ByteBuffer ascii = encodeAscii(s);
+            if (ascii != null) {
+                return ascii;
+            }
+        }
+
+        CharsetEncoder encoder = encoder(charset);
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) (s.length() + 1) * (long) Math.ceil(encoder.maxBytesPerChar()));
+        ByteBuffer out = ByteBuffer.wrap(bytes(capacity), 0, capacity);
+        CharBuffer in = CharBuffer.wrap(s);
+        CharBuffer terminator = TERMINATOR.duplicate();
+
+        if (encoder.encode(in, out, false).isError() ||
+                encoder.encode(terminator, out, true).isError() ||
+                encoder.flush(out).isError() ||
+                in.hasRemaining() || terminator.hasRemaining()) {
+            return null;
+        }
+
+        out.flip();
+        return out;
+    }
+
+    private ByteBuffer encodeAscii(String s) {
+        int len = s.length();
+        byte[] b = bytes(len + 1);
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return null;
+            }
+            b[i] = (byte) c;
+        }
+        b[len] = 0;
+        return ByteBuffer.wrap(b, 0, len + 1);
+    }
+
+    String decode(byte[] b, int off, int len, Charset charset) {
+        if (isAsciiCompatible(charset) && isAscii(b, off, len)) {
+            // Latin-1 decoding of ASCII bytes is a plain copy into a compact string
+            return new String(b, off, len, ISO_8859_1);
+        }
+
+        CharsetDecoder decoder = decoder(charset);
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) Math.ceil(len * (double) decoder.maxCharsPerByte()));
+        CharBuffer out = CharBuffer.wrap(chars(capacity), 0, capacity);
+        ByteBuffer in = ByteBuffer.wrap(b, off, len);
+
+        try {
+            CoderResult result = decoder.decode(in, out, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(out);
+            }
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+        } catch (CharacterCodingException e) {
+            return new String(b, off, len, charset);
+        }
+
+        return new String(out.array(), 0, out.position());
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static acmi.l2.clientmod.io.ByteUtil.compactIntToByteArray;
+import static acmi.l2.clientmod.io.UnrealPackage.*;
+import static acmi.l2.clientmod.io.UnrealPackage.ObjectFlag.*;
+
+/**
+ * Name, import and export tables under construction with hashed dedup of rows.
+ * <p>
+ * Rows are kept in int columns in serialized field order. Class imports and package exports
+ * missing from object paths are added on the fly.
+ */
+abstract class TableBuilder {
+    private static final int IMPORT_ROW = 4;
+    private static final int EXPORT_ROW = 7;
+
+    private final List<NameEntry> names = new ArrayList<>();
+    private final Map<NameEntry, Integer> nameIndex = new HashMap<>();
+    private int[] imports = new int[16 * IMPORT_ROW];
+    private int importCount;
+    private final Map<Row, Integer> importIndex = new HashMap<>();
+    private int[] exports = new int[16 * EXPORT_ROW];
+    private int exportCount;
+    private final Map<Row, Integer> exportIndex = new HashMap<>();
+    private final Map<Long, Integer> exportPathIndex = new HashMap<>();
+
+    /**
+     * Places object data of package export added by {@link #exportPackage(String[], int)}.
+     */
+    abstract void packageExportAdded(int index, byte[] data) throws UncheckedIOException;
+
+    /**
+     * Resolves class not found among class imports.
+     *
+     * @return object reference of class export, 0 if not found
+     */
+    int findClass(String name) {
+        int ref = 0;
+        for (String segment : name.split("\\.")) {
+            int objectName = nameReference(segment);
+            Integer index = objectName < 0 ? null : exportPathIndex.get(path(ref, objectName));
+            if (index == null) {
+                return 0;
+            }
+            ref = index + 1;
+        }
+        return exports[(ref - 1) * EXPORT_ROW] == 0 ? ref : 0;
+    }
+
+    int nameCount() {
+        return names.size();
+    }
+
+    int importCount() {
+        return importCount;
+    }
+
+    int exportCount() {
+        return exportCount;
+    }
+
+    /**
+     * @return name index ignoring case, -1 if not found
+     */
+    int nameReference(String name) {
+        return nameIndex.getOrDefault(new NameEntry(null, 0, name, 0), -1);
+    }
+
+    /**
+     * @return index of existing name ignoring case or of added one
+     */
+    int addName(String name, int flags) {
+        NameEntry entry = new NameEntry(null, 0, name, flags);
+        Integer index = nameIndex.get(entry);
+        if (index == null) {
+            index = names.size();
+            names.add(entry);
+            nameIndex.put(entry, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds name without dedup, as read from existing table.
+     */
+    void appendName(NameEntry entry) {
+        nameIndex.putIfAbsent(entry, names.size());
+        names.add(entry);
+    }
+
+    void setName(int index, String name, int flags) {
+        NameEntry old = names.get(index);
+        NameEntry entry = new NameEntry(null, 0, name, flags);
+        names.set(index, entry);
+        nameIndex.remove(old, index);
+        nameIndex.putIfAbsent(entry, index);
+    }
+
+    /**
+     * @return object reference of existing or added import
+     */
+    int addImport(String objectName, String className) {
+        String[] namePath = objectName.split("\\.");
+        String[] classPath = className.split("\\.");
+
+        int pckg = importPackage(namePath);
+        return importRow(addName(classPath[0], DEFAULT_NAME_FLAGS),
+                addName(classPath[1], DEFAULT_NAME_FLAGS),
+                pckg,
+                addName(namePath[namePath.length - 1], DEFAULT_NAME_FLAGS));
+    }
+
+    /**
+     * @return object reference of import package of {@code namePath} object, 0 for top level object
+     */
+    int importPackage(String[] namePath) {
+        int core = addName("Core", DEFAULT_NAME_FLAGS | Native.getMask());
+        int pckgClass = addName("Package", DEFAULT_NAME_FLAGS | HighlightedName.getMask() | Native.getMask());
+
+        int pckg = 0;
+        for (int i = 0; i < namePath.length - 1; i++) {
+            pckg = importRow(core, pckgClass, pckg, addName(namePath[i], DEFAULT_NAME_FLAGS));
+        }
+        return pckg;
+    }
+
+    private int importRow(int classPackage, int className, int objectPackage, int objectName) {
+        Integer index = importIndex.get(new Row(classPackage, className, objectPackage, objectName));
+        if (index == null) {
+            index = appendImport(classPackage, className, objectPackage, objectName);
+        }
+        return -(index + 1);
+    }
+
+    /**
+     * Adds import row without dedup, as read from existing table.
+     *
+     * @return row index
+     */
+    int appendImport(int classPackage, int className, int objectPackage, int objectName) {
+        int index = importCount++;
+        if (imports.length < importCount * IMPORT_ROW) {
+            imports = Arrays.copyOf(imports, imports.length * 2);
+        }
+        setImportRow(index, classPackage, className, objectPackage, objectName);
+        importIndex.putIfAbsent(new Row(classPackage, className, objectPackage, objectName), index);
+        return index;
+    }
+
+    void renameImport(int index, int objectPackage, int objectName) {
+        int i = index * IMPORT_ROW;
+        setImport(index, imports[i], imports[i + 1], objectPackage, objectName);
+    }
+
+    void changeImportClass(int index, int classPackage, int className) {
+        int i = index * IMPORT_ROW;
+        setImport(index, classPackage, className, imports[i + 2], imports[i + 3]);
+    }
+
+    private void setImport(int index, int classPackage, int className, int objectPackage, int objectName) {
+        int i = index * IMPORT_ROW;
+        importIndex.remove(new Row(imports[i], imports[i + 1], imports[i + 2], imports[i + 3]), index);
+        setImportRow(index, classPackage, className, objectPackage, objectName);
+        importIndex.putIfAbsent(new Row(classPackage, className, objectPackage, objectName), index);
+    }
+
+    private void setImportRow(int index, int classPackage, int className, int objectPackage, int objectName) {
+        int i = index * IMPORT_ROW;
+        imports[i] = classPackage;
+        imports[i + 1] = className;
+        imports[i + 2] = objectPackage;
+        imports[i + 3] = objectName;
+    }
+
+    /**
+     * @return reference of class import or export, class import is added if not found
+     */
+    int classReference(String name) {
+        if (name == null) {
+            return 0;
+        }
+
+        String[] path = name.split("\\.");
+        int core = nameReference("Core");
+        int pckgClass = nameReference("Package");
+        int clazz = nameReference("Class");
+        int ref = 0;
+        for (int i = 0; i < path.length && core >= 0 && clazz >= 0; i++) {
+            int objectName = nameReference(path[i]);
+            Integer index = objectName < 0 ? null :
+                    importIndex.get(i == path.length - 1 ?
+                            new Row(core, clazz, ref, objectName) :
+                            new Row(core, pckgClass, ref, objectName));
+            if (index == null) {
+                ref = 0;
+                break;
+            }
+            ref = -(index + 1);
+        }
+
+        if (ref == 0) {
+            ref = findClass(name);
+        }
+        if (ref == 0) {
+            ref = addImport(name, "Core.Class");
+        }
+        return ref;
+    }
+
+    /**
+     * @return object reference of existing export, 0 if not found
+     */
+    int exportReference(int objectClass, int objectSuperClass, int objectPackage, int objectName) {
+        Integer index = exportIndex.get(new Row(objectPackage, objectName, objectClass, objectSuperClass));
+        return index != null ? index + 1 : 0;
+    }
+
+    /**
+     * @param flags flags of added package exports
+     * @return object reference of export package of {@code namePath} object, 0 for top level object
+     */
+    int exportPackage(String[] namePath, int flags) throws UncheckedIOException {
+        int pckg = 0;
+        for (int i = 0; i < namePath.length - 1; i++) {
+            int name = addName(namePath[i], DEFAULT_NAME_FLAGS);
+            Integer index = exportPathIndex.get(path(pckg, name));
+            if (index == null) {
+                int pckgClass = classReference("Core.Package");
+                index = appendExport(pckgClass, 0, pckg, name, flags, 0, 0);
+                packageExportAdded(index, packageData());
+            }
+            pckg = index + 1;
+        }
+        return pckg;
+    }
+
+    /**
+     * @return object data of empty package
+     */
+    byte[] packageData() {
+        return compactIntToByteArray(addName("None", DEFAULT_NAME_FLAGS));
+    }
+
+    /**
+     * Adds export row without dedup.
+     *
+     * @return row index
+     */
+    int appendExport(int objectClass, int objectSuperClass, int objectPackage, int objectName, int flags, int size, int offset) {
+        int index = exportCount++;
+        if (exports.length < exportCount * EXPORT_ROW) {
+            exports = Arrays.copyOf(exports, exports.length * 2);
+        }
+        setExportRow(index, objectClass, objectSuperClass, objectPackage, objectName, flags, size, offset);
+        exportIndex.putIfAbsent(new Row(objectPackage, objectName, objectClass, objectSuperClass), index);
+        exportPathIndex.putIfAbsent(path(objectPackage, objectName), index);
+        return index;
+    }
+
+    void renameExport(int index, int objectPackage, int objectName) {
+        int i = index * EXPORT_ROW;
+        setExport(index, exports[i], exports[i + 1], objectPackage, objectName, exports[i + 4]);
+    }
+
+    void changeExportClass(int index, int objectClass, int objectSuperClass, int flags) {
+        int i = index * EXPORT_ROW;
+        setExport(index, objectClass, objectSuperClass, exports[i + 2], exports[i + 3], flags);
+    }
+
+    private void setExport(int index, int objectClass, int objectSuperClass, int objectPackage, int objectName, int flags) {
+        int i = index * EXPORT_ROW;
+        exportIndex.remove(new Row(exports[i + 2], exports[i + 3], exports[i], exports[i + 1]), index);
+        exportPathIndex.remove(path(exports[i + 2], exports[i + 3]), index);
+        setExportRow(index, objectClass, objectSuperClass, objectPackage, objectName, flags, exports[i + 5], exports[i + 6]);
+        exportIndex.putIfAbsent(new Row(objectPackage, objectName, objectClass, objectSuperClass), index);
+        exportPathIndex.putIfAbsent(path(objectPackage, objectName), index);
+    }
+
+    int exportSize(int index) {
+        return exports[index * EXPORT_ROW + 5];
+    }
+
+    int exportOffset(int index) {
+        return exports[index * EXPORT_ROW + 6];
+    }
+
+    void setExportData(int index, int size, int offset) {
+        int i = index * EXPORT_ROW;
+        exports[i + 5] = size;
+        exports[i + 6] = offset;
+    }
+
+    private void setExportRow(int index, int objectClass, int objectSuperClass, int objectPackage, int objectName, int flags, int size, int offset) {
+        int i = index * EXPORT_ROW;
+        exports[i] = objectClass;
+        exports[i + 1] = objectSuperClass;
+        exports[i + 2] = objectPackage;
+        exports[i + 3] = objectName;
+        exports[i + 4] = flags;
+        exports[i + 5] = size;
+        exports[i + 6] = offset;
+    }
+
+    /**
+     * Writes name, import and export tables from current position of {@code out}.
+     *
+     * @return name, import and export table offsets
+     */
+    int[] writeTables(DataOutput out) throws UncheckedIOException {
+        RandomAccessMemory buffer = new RandomAccessMemory(null, out.getCharset());
+
+        int nameTablePosition = out.getPosition();
+        for (NameEntry entry : names) {
+            buffer.writeLine(entry.getName());
+            buffer.writeInt(entry.getFlags());
+        }
+        int importTablePosition = nameTablePosition + buffer.getPosition();
+        for (int i = 0; i < importCount * IMPORT_ROW; i += IMPORT_ROW) {
+            buffer.writeCompactInt(imports[i]);
+            buffer.writeCompactInt(imports[i + 1]);
+            buffer.writeInt(imports[i + 2]);
+            buffer.writeCompactInt(imports[i + 3]);
+        }
+        int exportTablePosition = nameTablePosition + buffer.getPosition();
+        for (int i = 0; i < exportCount * EXPORT_ROW; i += EXPORT_ROW) {
+            buffer.writeCompactInt(exports[i]);
+            buffer.writeCompactInt(exports[i + 1]);
+            buffer.writeInt(exports[i + 2]);
+            buffer.writeCompactInt(exports[i + 3]);
+            buffer.writeInt(exports[i + 4]);
+            buffer.writeCompactInt(exports[i + 5]);
+            buffer.writeCompactInt(exports[i + 6]);
+        }
+        buffer.trimToPosition();
+        buffer.writeTo(out);
+
+        return new int[]{nameTablePosition, importTablePosition, exportTablePosition};
+    }
+
+    private static long path(int objectPackage, int objectName) {
+        return ((long) objectPackage << 32) | (objectName & 0xffffffffL);
+    }
+
+    private static final class Row {
+        private final int a, b, c, d;
+
+        Row(int a, int b, int c, int d) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            Row row = (Row) o;
+            return a == row.a && b == row.b && c == row.c && d == row.d;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((a * 31 + b) * 31 + c) * 31 + d;
+        }
+    }
+}
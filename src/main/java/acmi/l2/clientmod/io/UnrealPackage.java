@@ -24,8 +24,6 @@ package acmi.l2.clientmod.io;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
@@ -37,7 +35,8 @@ import java.util.stream.Collectors;
 
 import static acmi.l2.clientmod.io.ByteUtil.*;
 import static acmi.l2.clientmod.io.UnrealPackage.ObjectFlag.*;
-import static acmi.l2.clientmod.util.CollectionsMethods.indexIf;
+import static acmi.l2.clientmod.util.StringMethods.caseInsensitiveHashCode;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
 
 @SuppressWarnings("unused")
 public class UnrealPackage implements AutoCloseable {
@@ -59,6 +58,37 @@ public class UnrealPackage implements AutoCloseable {
         UnrealPackage.defaultCharset = defaultCharset;
     }
 
+    private static volatile NamePool namePool;
+
+    public static NamePool getNamePool() {
+        return namePool;
+    }
+
+    /**
+     * @param namePool shared pool for names read by {@link #readNameTable()}, {@code null} to disable
+     */
+    public static void setNamePool(NamePool namePool) {
+        UnrealPackage.namePool = namePool;
+    }
+
+    private static GrowthPolicy defaultGrowthPolicy = GrowthPolicy.NONE;
+
+    static {
+        try {
+            defaultGrowthPolicy = GrowthPolicy.parse(System.getProperty("UnrealPackage.growthPolicy", "none"));
+        } catch (AccessControlException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    public static GrowthPolicy getDefaultGrowthPolicy() {
+        return defaultGrowthPolicy;
+    }
+
+    public static void setDefaultGrowthPolicy(GrowthPolicy defaultGrowthPolicy) {
+        UnrealPackage.defaultGrowthPolicy = Objects.requireNonNull(defaultGrowthPolicy);
+    }
+
     public static final int UNREAL_PACKAGE_MAGIC = 0x9E2A83C1;
 
     public static final int VERSION_OFFSET = 0x04;
@@ -72,16 +102,30 @@ public class UnrealPackage implements AutoCloseable {
     public static final int IMPORT_OFFSET_OFFSET = 0x20;
     public static final int GUID_OFFSET = 0x24;
     public static final int GENERATIONS_OFFSET = 0x34;
+    public static final int HEADER_SIZE = 0x38;
+
+    private static final int NAME_TABLE = 1;
+    private static final int IMPORT_TABLE = 1 << 1;
+    private static final int EXPORT_TABLE = 1 << 2;
 
     protected RandomAccess file;
 
+    private final boolean lazy;
+    /**
+     * Tables not read yet, see {@link #loadTable(int)}.
+     */
+    private volatile int pendingTables;
+
     protected int version;
     protected int license;
     protected int flags;
 
     protected List<NameEntry> names;
+    private NameIndex nameIndex;
     protected List<ExportEntry> exports;
     protected List<ImportEntry> imports;
+    private ObjectIndex objectIndex;
+    private FreeSpaceMap freeSpace;
 
     protected UUID uuid;
 
@@ -89,6 +133,12 @@ public class UnrealPackage implements AutoCloseable {
 
     protected int headerEndOffset;
 
+    private GrowthPolicy growthPolicy = defaultGrowthPolicy;
+    /**
+     * Data offset to capacity, for object data with reserved space past its size.
+     */
+    private final Map<Integer, Integer> reservedCapacity = new HashMap<>();
+
     public UnrealPackage(String path, boolean readOnly) throws UncheckedIOException {
         this(new RandomAccessFile(path, readOnly, defaultCharset));
     }
@@ -102,11 +152,32 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public UnrealPackage(RandomAccess file) throws UncheckedIOException {
+        this(file, false);
+    }
+
+    public UnrealPackage(String path, boolean readOnly, boolean lazy) throws UncheckedIOException {
+        this(new RandomAccessFile(path, readOnly, defaultCharset), lazy);
+    }
+
+    public UnrealPackage(File file, boolean readOnly, boolean lazy) throws UncheckedIOException {
+        this(new RandomAccessFile(file, readOnly, defaultCharset), lazy);
+    }
+
+    /**
+     * @param lazy if {@code true} only the fixed header, GUID and generations are read here,
+     *             name, import and export tables are read on first access
+     */
+    public UnrealPackage(RandomAccess file, boolean lazy) throws UncheckedIOException {
         this.file = Objects.requireNonNull(file);
+        this.lazy = lazy;
 
         readHeader();
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
     protected void readHeader() throws UncheckedIOException {
         file.setPosition(0);
 
@@ -118,9 +189,13 @@ public class UnrealPackage implements AutoCloseable {
         license = file.readUnsignedShort();
         flags = file.readInt();
 
-        readNameTable();
-        readImportTable();
-        readExportTable();
+        if (lazy) {
+            pendingTables = NAME_TABLE | IMPORT_TABLE | EXPORT_TABLE;
+        } else {
+            readNameTable();
+            readImportTable();
+            readExportTable();
+        }
 
         file.setPosition(GUID_OFFSET);
         byte[] uuidBytes = new byte[16];
@@ -138,6 +213,38 @@ public class UnrealPackage implements AutoCloseable {
         headerEndOffset = file.getPosition();
     }
 
+    /**
+     * Reads the fixed package header without parsing any table.
+     */
+    public static Header peekHeader(RandomAccess file) throws UncheckedIOException {
+        byte[] data = new byte[HEADER_SIZE];
+        file.setPosition(0);
+        file.readFully(data);
+
+        if (getInt(data, 0) != UNREAL_PACKAGE_MAGIC) {
+            throw new UncheckedIOException(new IOException("Not a L2 package file."));
+        }
+
+        return new Header(
+                getUnsignedShort(data, VERSION_OFFSET),
+                getUnsignedShort(data, LICENSEE_OFFSET),
+                getInt(data, PACKAGE_FLAGS_OFFSET),
+                getInt(data, NAME_COUNT_OFFSET),
+                getInt(data, NAME_OFFSET_OFFSET),
+                getInt(data, EXPORT_COUNT_OFFSET),
+                getInt(data, EXPORT_OFFSET_OFFSET),
+                getInt(data, IMPORT_COUNT_OFFSET),
+                getInt(data, IMPORT_OFFSET_OFFSET),
+                uuidFromBytes(Arrays.copyOfRange(data, GUID_OFFSET, GUID_OFFSET + 16)),
+                getInt(data, GENERATIONS_OFFSET));
+    }
+
+    public static Header peekHeader(File file) throws UncheckedIOException {
+        try (RandomAccess ra = new RandomAccessFile(file, true, defaultCharset)) {
+            return peekHeader(ra);
+        }
+    }
+
     public static UnrealPackage create(RandomAccess randomAccess, int version, int license) throws UncheckedIOException {
         byte[] data = new byte[56];
 
@@ -205,6 +312,14 @@ public class UnrealPackage implements AutoCloseable {
         return uuid;
     }
 
+    public GrowthPolicy getGrowthPolicy() {
+        return growthPolicy;
+    }
+
+    public void setGrowthPolicy(GrowthPolicy growthPolicy) {
+        this.growthPolicy = Objects.requireNonNull(growthPolicy);
+    }
+
     public void setGUID(UUID guid) throws UncheckedIOException {
         file.setPosition(GUID_OFFSET);
         file.writeBytes(uuidToBytes(uuid));
@@ -213,23 +328,71 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public List<NameEntry> getNameTable() {
+        loadTable(NAME_TABLE);
         return names;
     }
 
+    private void loadTable(int table) throws UncheckedIOException {
+        if ((pendingTables & table) == 0) {
+            return;
+        }
+
+        synchronized (this) {
+            if ((pendingTables & table) == 0) {
+                return;
+            }
+
+            int position = file.getPosition();
+            try {
+                switch (table) {
+                    case NAME_TABLE:
+                        readNameTable();
+                        break;
+                    case IMPORT_TABLE:
+                        readImportTable();
+                        break;
+                    case EXPORT_TABLE:
+                        readExportTable();
+                        break;
+                }
+            } finally {
+                file.setPosition(position);
+            }
+            pendingTables &= ~table;
+        }
+    }
+
     protected void readNameTable() throws UncheckedIOException {
         file.setPosition(NAME_COUNT_OFFSET);
         int count = file.readInt();
         file.setPosition(getNameTableOffset());
 
+        NamePool pool = namePool;
         List<NameEntry> tmp = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
-            tmp.add(new NameEntry(this, i, file.readLine(), file.readInt()));
+            tmp.add(new NameEntry(this, i, pool != null ? readName(pool) : file.readLine(), file.readInt()));
         }
 
         names = Collections.unmodifiableList(tmp);
+        nameIndex = new NameIndex(names);
+    }
+
+    private String readName(NamePool pool) throws UncheckedIOException {
+        int len = file.readCompactInt();
+
+        if (len == 0) {
+            return "";
+        }
+
+        int size = len > 0 ? len : -2 * len;
+        byte[] bytes = StringCodec.get().bytes(size);
+        file.readFully(bytes, 0, size);
+        Charset charset = len > 0 && file.getCharset() != null ? file.getCharset() : UTF_16LE;
+        return pool.intern(bytes, 0, size - (len > 0 ? 1 : 2), charset);
     }
 
     public List<ExportEntry> getExportTable() {
+        loadTable(EXPORT_TABLE);
         return exports;
     }
 
@@ -238,22 +401,49 @@ public class UnrealPackage implements AutoCloseable {
         int count = file.readInt();
         file.setPosition(getExportTableOffset());
 
-        List<ExportEntry> tmp = new ArrayList<>(count);
+        ExportColumns columns = new ExportColumns(count);
         for (int i = 0; i < count; i++) {
-            tmp.add(new ExportEntry(this, i,
-                    file.readCompactInt(),
-                    file.readCompactInt(),
-                    file.readInt(),
-                    file.readCompactInt(),
-                    file.readInt(),
-                    file.readCompactInt(),
-                    file.readCompactInt()));
+            columns.objectClass[i] = file.readCompactInt();
+            columns.objectSuperClass[i] = file.readCompactInt();
+            columns.objectPackage[i] = file.readInt();
+            columns.objectName[i] = file.readCompactInt();
+            columns.objectFlags[i] = file.readInt();
+            columns.size[i] = file.readCompactInt();
+            columns.offset[i] = file.readCompactInt();
         }
 
-        exports = Collections.unmodifiableList(tmp);
+        exports = new ExportList(columns);
+        objectIndex = null;
+        freeSpace = null;
+    }
+
+    /**
+     * Visits export table rows without materializing {@link ExportEntry} objects.
+     */
+    public void visitExports(ExportVisitor visitor) {
+        ExportColumns columns = exportColumns();
+        if (columns != null) {
+            for (int i = 0; i < columns.count; i++) {
+                visitor.visit(i, columns.objectClass[i], columns.objectSuperClass[i], columns.objectPackage[i], columns.objectName[i],
+                        columns.objectFlags[i], columns.size[i], columns.offset[i]);
+            }
+        } else {
+            List<ExportEntry> exportTable = getExportTable();
+            for (int i = 0; i < exportTable.size(); i++) {
+                ExportEntry entry = exportTable.get(i);
+                visitor.visit(i, entry.objectClassRef(), entry.objectSuperClassRef(), entry.objectPackage, entry.objectName,
+                        entry.getObjectFlags(), entry.getSize(), entry.getOffset());
+            }
+        }
+    }
+
+    private ExportColumns exportColumns() {
+        List<ExportEntry> exportTable = getExportTable();
+        return exportTable instanceof ExportList ? ((ExportList) exportTable).columns : null;
     }
 
     public List<ImportEntry> getImportTable() {
+        loadTable(IMPORT_TABLE);
         return imports;
     }
 
@@ -262,16 +452,39 @@ public class UnrealPackage implements AutoCloseable {
         int count = file.readInt();
         file.setPosition(getImportTableOffset());
 
-        List<ImportEntry> tmp = new ArrayList<>(count);
+        ImportColumns columns = new ImportColumns(count);
         for (int i = 0; i < count; i++) {
-            tmp.add(new ImportEntry(this, i,
-                    file.readCompactInt(),
-                    file.readCompactInt(),
-                    file.readInt(),
-                    file.readCompactInt()));
+            columns.classPackage[i] = file.readCompactInt();
+            columns.className[i] = file.readCompactInt();
+            columns.objectPackage[i] = file.readInt();
+            columns.objectName[i] = file.readCompactInt();
         }
 
-        imports = Collections.unmodifiableList(tmp);
+        imports = new ImportList(columns);
+        objectIndex = null;
+    }
+
+    /**
+     * Visits import table rows without materializing {@link ImportEntry} objects.
+     */
+    public void visitImports(ImportVisitor visitor) {
+        ImportColumns columns = importColumns();
+        if (columns != null) {
+            for (int i = 0; i < columns.count; i++) {
+                visitor.visit(i, columns.classPackage[i], columns.className[i], columns.objectPackage[i], columns.objectName[i]);
+            }
+        } else {
+            List<ImportEntry> importTable = getImportTable();
+            for (int i = 0; i < importTable.size(); i++) {
+                ImportEntry entry = importTable.get(i);
+                visitor.visit(i, entry.classPackageRef(), entry.classNameRef(), entry.objectPackage, entry.objectName);
+            }
+        }
+    }
+
+    private ImportColumns importColumns() {
+        List<ImportEntry> importTable = getImportTable();
+        return importTable instanceof ImportList ? ((ImportList) importTable).columns : null;
     }
 
     @Deprecated
@@ -300,11 +513,12 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public int nameReference(String name) {
-        return getNameTable().parallelStream()
-                .filter(e -> e.getName().equalsIgnoreCase(name))
-                .findAny()
-                .map(PackageEntry::getIndex)
-                .orElse(-1);
+        List<NameEntry> nameTable = getNameTable();
+        NameIndex index = nameIndex;
+        if (index == null || index.names != nameTable) {
+            nameIndex = index = new NameIndex(nameTable);
+        }
+        return index.indexOf(name);
     }
 
     public Entry objectReference(int ref) {
@@ -321,6 +535,30 @@ public class UnrealPackage implements AutoCloseable {
         return objectReference(index);
     }
 
+    int objectPackageReference(int ref) {
+        ExportColumns exportColumns = exportColumns();
+        if (ref > 0 && exportColumns != null) {
+            return exportColumns.objectPackage[ref - 1];
+        }
+        ImportColumns importColumns = importColumns();
+        if (ref < 0 && importColumns != null) {
+            return importColumns.objectPackage[-ref - 1];
+        }
+        return objectReference(ref).objectPackage;
+    }
+
+    int objectNameReference(int ref) {
+        ExportColumns exportColumns = exportColumns();
+        if (ref > 0 && exportColumns != null) {
+            return exportColumns.objectName[ref - 1];
+        }
+        ImportColumns importColumns = importColumns();
+        if (ref < 0 && importColumns != null) {
+            return importColumns.objectName[-ref - 1];
+        }
+        return objectReference(ref).objectName;
+    }
+
     public int objectReferenceByName(String name, Predicate<String> classFilter) {
         if (name == null || name.isEmpty()) {
             return 0;
@@ -340,28 +578,19 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public int importReferenceByName(String name, Predicate<String> classFilter) {
-        return getImportTable().parallelStream()
-                .filter(entry -> entry.getObjectFullName().equalsIgnoreCase(name))
-                .filter(entry -> classFilter.test(entry.getFullClassName()))
-                .findAny()
-                .map(ImportEntry::getObjectReference)
-                .orElse(0);
+        return objectIndex().findImport(name, ref -> classFilter.test(objectReference(ref).getFullClassName()));
     }
 
     public int exportReferenceByName(String name, Predicate<String> classFilter) {
-        Optional<Integer> ref = getExportTable().parallelStream()
-                .filter(entry -> entry.getObjectFullName().equalsIgnoreCase(name))
-                .filter(entry -> classFilter.test(entry.getFullClassName()))
-                .findAny()
-                .map(ExportEntry::getObjectReference);
-        if (!ref.isPresent()) {
-            ref = getExportTable().parallelStream()
-                    .filter(entry -> entry.getObjectInnerFullName().equalsIgnoreCase(name))
-                    .filter(entry -> classFilter.test(entry.getFullClassName()))
-                    .findAny()
-                    .map(ExportEntry::getObjectReference);
+        return objectIndex().findExport(name, ref -> classFilter.test(objectReference(ref).getFullClassName()));
+    }
+
+    private ObjectIndex objectIndex() {
+        ObjectIndex index = objectIndex;
+        if (index == null || !index.isValid()) {
+            objectIndex = index = new ObjectIndex(this);
         }
-        return ref.orElse(0);
+        return index;
     }
 
     public void updateNameTable(Consumer<List<UnrealPackage.NameEntry>> transformation) throws UncheckedIOException {
@@ -454,8 +683,8 @@ public class UnrealPackage implements AutoCloseable {
     protected void writeImportTable(List<ImportEntry> importTable) throws UncheckedIOException {
         RandomAccessMemory buffer = new RandomAccessMemory(null, file.getCharset());
         for (ImportEntry entry : importTable) {
-            buffer.writeCompactInt(entry.classPackage);
-            buffer.writeCompactInt(entry.className);
+            buffer.writeCompactInt(entry.classPackageRef());
+            buffer.writeCompactInt(entry.classNameRef());
             buffer.writeInt(entry.objectPackage);
             buffer.writeCompactInt(entry.objectName);
         }
@@ -466,13 +695,13 @@ public class UnrealPackage implements AutoCloseable {
     protected void writeExportTable(List<ExportEntry> exportTable) throws UncheckedIOException {
         RandomAccessMemory buffer = new RandomAccessMemory(null, file.getCharset());
         for (ExportEntry entry : exportTable) {
-            buffer.writeCompactInt(entry.objectClass);
-            buffer.writeCompactInt(entry.objectSuperClass);
+            buffer.writeCompactInt(entry.objectClassRef());
+            buffer.writeCompactInt(entry.objectSuperClassRef());
             buffer.writeInt(entry.objectPackage);
             buffer.writeCompactInt(entry.objectName);
-            buffer.writeInt(entry.objectFlags);
-            buffer.writeCompactInt(entry.size);
-            buffer.writeCompactInt(entry.offset);
+            buffer.writeInt(entry.getObjectFlags());
+            buffer.writeCompactInt(entry.getSize());
+            buffer.writeCompactInt(entry.getOffset());
         }
         buffer.trimToPosition();
         buffer.writeTo(file);
@@ -494,6 +723,11 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public OptionalInt getDataStartOffset() {
+        ExportColumns columns = exportColumns();
+        if (columns != null) {
+            return columns.dataStartOffset();
+        }
+
         return getExportTable().parallelStream()
                 .filter(entry -> entry.getSize() > 0)
                 .mapToInt(ExportEntry::getOffset)
@@ -501,7 +735,8 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public OptionalInt getDataEndOffset() {
-        return getDataEndOffset(getExportTable());
+        FreeSpaceMap space = freeSpace();
+        return space.isEmpty() ? OptionalInt.empty() : OptionalInt.of(space.getEnd());
     }
 
     protected static OptionalInt getDataEndOffset(List<ExportEntry> exportTable) {
@@ -536,255 +771,394 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public void addNameEntries(Map<String, Integer> names) throws UncheckedIOException {
-        updateNameTable(nameTable -> names.forEach((k, v) -> {
-            UnrealPackage.NameEntry entry = new UnrealPackage.NameEntry(null, 0, k, v);
-            if (!nameTable.contains(entry)) {
-                nameTable.add(entry);
-            }
-        }));
+        EditSession session = edit();
+        names.forEach(session::addName);
+        session.commit();
     }
 
     public void updateNameEntry(int index, String newName, int newFlags) throws UncheckedIOException {
-        updateNameTable(nameTable -> {
-            nameTable.remove(index);
-            nameTable.add(index, new UnrealPackage.NameEntry(this, index, newName, newFlags));
-        });
+        EditSession session = edit();
+        session.setName(index, newName, newFlags);
+        session.commit();
     }
 
     public void addImportEntries(Map<String, String> imports) throws UncheckedIOException {
-        Map<String, Integer> namesToAdd = new HashMap<>();
-        if (nameReference("Core") == -1) {
-            namesToAdd.put("Core", DEFAULT_NAME_FLAGS | Native.getMask());
-        }
-        if (nameReference("Package") == -1) {
-            namesToAdd.put("Package", DEFAULT_NAME_FLAGS | HighlightedName.getMask() | Native.getMask());
-        }
-        imports.forEach((k, v) -> {
-            String[] namePath = k.split("\\.");
-            String[] classPath = v.split("\\.");
-
-            Arrays.stream(namePath)
-                    .filter(s -> nameReference(s) == -1)
-                    .forEach(s -> namesToAdd.put(s, DEFAULT_NAME_FLAGS));
-            Arrays.stream(classPath)
-                    .filter(s -> nameReference(s) == -1)
-                    .forEach(s -> namesToAdd.put(s, DEFAULT_NAME_FLAGS));
-        });
-        addNameEntries(namesToAdd);
-
-        updateImportTable(importTable -> {
-            for (Map.Entry<String, String> entry : imports.entrySet()) {
-                String[] namePath = entry.getKey().split("\\.");
-                String[] classPath = entry.getValue().split("\\.");
-
-                int pckg = 0;
-                UnrealPackage.ImportEntry importEntry;
-                for (int i = 0; i < namePath.length - 1; i++) {
-                    importEntry = new UnrealPackage.ImportEntry(this, 0,
-                            nameReference("Core"),
-                            nameReference("Package"),
-                            pckg,
-                            nameReference(namePath[i]));
-                    UnrealPackage.ImportEntry toFind = importEntry;
-                    if ((pckg = indexIf(importTable, ie -> toFind.objectPackage == ie.objectPackage &&
-                            toFind.objectName == ie.objectName &&
-                            toFind.classPackage == ie.classPackage &&
-                            toFind.className == ie.className)) == -1) {
-                        importTable.add(importEntry);
-                        pckg = importTable.size() - 1;
-                    }
-                    pckg = -(pckg + 1);
-                }
+        EditSession session = edit();
+        imports.forEach(session::addImport);
+        session.commit();
+    }
 
-                importEntry = new UnrealPackage.ImportEntry(this, 0,
-                        nameReference(classPath[0]),
-                        nameReference(classPath[1]),
-                        pckg,
-                        nameReference(namePath[namePath.length - 1]));
-                UnrealPackage.ImportEntry toFind = importEntry;
-                if (indexIf(importTable, ie -> toFind.objectPackage == ie.objectPackage &&
-                        toFind.objectName == ie.objectName &&
-                        toFind.classPackage == ie.classPackage &&
-                        toFind.className == ie.className) == -1) {
-                    importTable.add(importEntry);
-                }
+    public void renameImport(int index, String importDst) throws UncheckedIOException {
+        EditSession session = edit();
+        session.renameImport(index, importDst);
+        session.commit();
+    }
+
+    public void changeImportClass(int index, String importDst) throws UncheckedIOException {
+        EditSession session = edit();
+        session.changeImportClass(index, importDst);
+        session.commit();
+    }
+
+    public void addExportEntry(String objectName, String objectClass, String objectSuperClass, byte[] data, int flags) throws UncheckedIOException {
+        EditSession session = edit();
+        session.addExport(objectName, objectClass, objectSuperClass, data, flags);
+        session.commit();
+    }
+
+    public void renameExport(int index, String nameDst) throws UncheckedIOException {
+        EditSession session = edit();
+        session.renameExport(index, nameDst);
+        session.commit();
+    }
+
+    public void removeExport(int index) throws UncheckedIOException {
+        EditSession session = edit();
+        session.removeExport(index);
+        session.commit();
+    }
+
+    /**
+     * Starts batch of table edits, nothing is written until {@link EditSession#commit()}.
+     */
+    public EditSession edit() throws UncheckedIOException {
+        return new EditSession(this);
+    }
+
+    protected static OptionalInt findPositionForNewExportEntryData(List<ExportEntry> exportTable, int size) {
+        long[] ranges = new long[exportTable.size()];
+        int count = 0;
+        for (ExportEntry entry : exportTable) {
+            if (entry.getSize() > 0) {
+                ranges[count++] = (long) entry.getOffset() << 32 | entry.getSize();
             }
-        });
+        }
+        return count == 0 ? OptionalInt.empty() : OptionalInt.of(FreeSpaceMap.of(ranges, count, 0).allocate(size));
     }
 
-    public void renameImport(int index, String importDst) throws UncheckedIOException {
-        addImportEntries(
-                Collections.singletonMap(importDst, getImportTable().get(index).getFullClassName())
-        );
+    /**
+     * @return free space of data region, kept in sync by {@link ExportEntry#setObjectRawData(byte[], boolean)}
+     * and rebuilt after export table is read
+     */
+    FreeSpaceMap freeSpace() {
+        FreeSpaceMap space = freeSpace;
+        if (space == null) {
+            List<ExportEntry> exportTable = getExportTable();
+            long[] ranges = new long[exportTable.size()];
+            int[] count = new int[1];
+            visitExports((index, objectClass, objectSuperClass, objectPackage, objectName, objectFlags, size, offset) -> {
+                if (size > 0) {
+                    ranges[count[0]++] = (long) offset << 32 | dataCapacity(offset, size);
+                }
+            });
+            freeSpace = space = FreeSpaceMap.of(ranges, count[0], headerEndOffset);
+        }
+        return space;
+    }
 
-        updateImportTable(importTable -> importTable.set(index, importTable.remove(importTable.size() - 1)));
+    /**
+     * Drops data layout derived from previous edits and re-reads tables, after failed batch of edits.
+     * Reserved space is forgotten and becomes free space.
+     */
+    void reloadTables() throws UncheckedIOException {
+        freeSpace = null;
+        reservedCapacity.clear();
+
+        readNameTable();
+        readImportTable();
+        readExportTable();
     }
 
-    public void changeImportClass(int index, String importDst) throws UncheckedIOException {
-        String[] clazz = importDst.split("\\.");
-        if (clazz.length != 2) {
-            throw new IllegalArgumentException("Format: Package.Class");
+    /**
+     * @return bytes available for object data at {@code offset} including reserved space
+     */
+    int dataCapacity(int offset, int size) {
+        if (size <= 0) {
+            return 0;
+        }
+        Integer capacity = reservedCapacity.get(offset);
+        return capacity != null && capacity > size ? capacity : size;
+    }
+
+    /**
+     * @return offset for {@code size} bytes of object data with space reserved by {@link #getGrowthPolicy()}
+     */
+    int allocateData(int size) {
+        if (size <= 0) {
+            return freeSpace().allocate(0);
         }
 
-        addNameEntries(Arrays.stream(clazz)
-                .filter(s -> nameReference(s) == -1)
-                .collect(Collectors.toList()));
+        int capacity = Math.max(size, growthPolicy.capacity(size));
+        int offset = freeSpace().allocate(capacity);
+        if (capacity > size) {
+            reservedCapacity.put(offset, capacity);
+        }
+        return offset;
+    }
 
-        updateImportTable(importTable -> {
-            UnrealPackage.ImportEntry entry = importTable.get(index);
-            entry.classPackage = nameReference(clazz[0]);
-            entry.className = nameReference(clazz[1]);
-        });
+    void freeData(int offset, int size) {
+        freeSpace().free(offset, dataCapacity(offset, size));
+        reservedCapacity.remove(offset);
     }
 
-    public void addExportEntry(String objectName, String objectClass, String objectSuperClass, byte[] data, int flags) throws UncheckedIOException {
-        Map<String, String> classes = new HashMap<>();
-        if (objectClass != null && objectReferenceByName(objectClass, IS_CLASS) == 0) {
-            classes.put(objectClass, "Core.Class");
-        }
-        if (objectSuperClass != null && objectReferenceByName(objectSuperClass, IS_CLASS) == 0) {
-            classes.put(objectClass, "Core.Class");
-        }
-        if (!classes.isEmpty()) {
-            addImportEntries(classes);
-        }
-
-        Map<String, Integer> namesToAdd = new HashMap<>();
-        String[] namePath = objectName.split("\\.");
-        addNameEntries(Arrays.stream(namePath)
-                .filter(s -> nameReference(s) == -1)
-                .collect(Collectors.toList()));
-
-        updateExportTable(exportTable -> {
-            int pckgInd = importReferenceByName("Core.Package", IS_CLASS);
-            byte[] pckgData = compactIntToByteArray(nameReference("None"));
-            int pckg = 0;
-            UnrealPackage.ExportEntry exportEntry;
-            for (int i = 0; i < namePath.length - 1; i++) {
-                file.setPosition(findPositionForNewExportEntryData(exportTable, pckgData.length).orElse(headerEndOffset));
-                exportEntry = new UnrealPackage.ExportEntry(this,
-                        0,
-                        pckgInd,
-                        0,
-                        pckg,
-                        nameReference(namePath[i]),
-                        DEFAULT_OBJECT_FLAGS,
-                        pckgData.length,
-                        file.getPosition());
-                ExportEntry toFind = exportEntry;
-                if ((pckg = indexIf(exportTable, ee ->
-                        ee.objectPackage == toFind.objectPackage &&
-                                ee.objectName == toFind.objectName)) == -1) {
-                    exportTable.add(exportEntry);
-                    pckg = exportTable.size() - 1;
-                    file.writeBytes(pckgData);
-                }
-                pckg++;
-            }
+    /**
+     * Object data at {@code offset} is changed in place, {@code newSize} must fit into its capacity.
+     */
+    void resizeData(int offset, int size, int newSize) {
+        int capacity = dataCapacity(offset, size);
+        int target = newSize <= 0 ? 0 : Math.max(newSize, Math.min(capacity, growthPolicy.capacity(newSize)));
+        if (target < capacity) {
+            freeSpace().free(offset + target, capacity - target);
+        }
+        if (target > newSize) {
+            reservedCapacity.put(offset, target);
+        } else {
+            reservedCapacity.remove(offset);
+        }
+    }
 
-            file.setPosition(findPositionForNewExportEntryData(exportTable, data.length).orElse(headerEndOffset));
-            exportEntry = new UnrealPackage.ExportEntry(this,
-                    0,
-                    objectReferenceByName(objectClass, IS_CLASS),
-                    objectReferenceByName(objectSuperClass, IS_CLASS),
-                    pckg,
-                    nameReference(namePath[namePath.length - 1]),
-                    flags,
-                    data.length,
-                    file.getPosition());
-            UnrealPackage.ExportEntry toFind = exportEntry;
-            if (indexIf(exportTable, ee -> ee.objectPackage == toFind.objectPackage &&
-                    ee.objectName == toFind.objectName &&
-                    ee.objectClass == toFind.objectClass &&
-                    ee.objectSuperClass == toFind.objectSuperClass) == -1) {
-                exportTable.add(exportEntry);
-                file.writeBytes(data);
+    /**
+     * Writes size of attached export entry, patches its row in place if encoded size length is not changed.
+     */
+    private void writeExportSize(ExportEntry entry, int oldSize) throws UncheckedIOException {
+        ExportColumns columns = exportColumns();
+        if (columns != null && entry.columns == columns &&
+                sizeOfCompactInt(oldSize) == sizeOfCompactInt(entry.getSize())) {
+            file.setPosition(getExportTableOffset() + columns.sizePosition(entry.getIndex()));
+            file.writeCompactInt(entry.getSize());
+        } else {
+            file.setPosition(getExportTableOffset());
+            writeExportTable(getExportTable());
+            if (columns != null) {
+                columns.sizePositions = null;
             }
+        }
+    }
 
-            file.setPosition(getDataEndOffset(exportTable).orElseThrow(IllegalStateException::new));
-        });
+    @FunctionalInterface
+    public interface ExportVisitor {
+        void visit(int index, int objectClass, int objectSuperClass, int objectPackage, int objectName, int objectFlags, int size, int offset);
     }
 
-    public void renameExport(int index, String nameDst) throws UncheckedIOException {
-        String[] namePath = nameDst.split("\\.");
-        if (namePath.length > 1 && objectReferenceByName("Core.Package", IS_CLASS) == 0) {
-            addImportEntries(Collections.singletonMap("Core.Package", "Core.Class"));
-        }
-        addNameEntries(Arrays.stream(namePath)
-                .filter(s -> nameReference(s) == -1)
-                .collect(Collectors.toList()));
-
-        updateExportTable(exportTable -> {
-            int pckgInd = objectReferenceByName("Core.Package", IS_CLASS);
-            byte[] pckgData = ByteUtil.compactIntToByteArray(nameReference("None"));
-            int pckg = 0;
-            UnrealPackage.ExportEntry exportEntry;
-            for (int i = 0; i < namePath.length - 1; i++) {
-                exportEntry = new UnrealPackage.ExportEntry(this,
-                        0,
-                        pckgInd,
-                        0,
-                        pckg,
-                        nameReference(namePath[i]),
-                        Public.getMask() | LoadForServer.getMask() | LoadForEdit.getMask(),
-                        pckgData.length, file.getPosition());
-                ExportEntry toFind = exportEntry;
-                if ((pckg = indexIf(exportTable, ee ->
-                        ee.objectPackage == toFind.objectPackage &&
-                                ee.objectName == toFind.objectName)) == -1) {
-                    exportTable.add(exportEntry);
-                    pckg = exportTable.size() - 1;
-                    file.writeBytes(pckgData);
+    @FunctionalInterface
+    public interface ImportVisitor {
+        void visit(int index, int classPackage, int className, int objectPackage, int objectName);
+    }
+
+    private static final class ExportColumns {
+        private final int count;
+        private final int[] objectClass;
+        private final int[] objectSuperClass;
+        private final int[] objectPackage;
+        private final int[] objectName;
+        private final int[] objectFlags;
+        private final int[] size;
+        private final int[] offset;
+        private int[] sizePositions;
+
+        private ExportColumns(int count) {
+            this.count = count;
+            this.objectClass = new int[count];
+            this.objectSuperClass = new int[count];
+            this.objectPackage = new int[count];
+            this.objectName = new int[count];
+            this.objectFlags = new int[count];
+            this.size = new int[count];
+            this.offset = new int[count];
+        }
+
+        /**
+         * @return position of size field of row {@code index} relative to export table offset
+         */
+        private int sizePosition(int index) {
+            if (sizePositions == null) {
+                int[] positions = new int[count];
+                int position = 0;
+                for (int i = 0; i < count; i++) {
+                    position += sizeOfCompactInt(objectClass[i]) +
+                            sizeOfCompactInt(objectSuperClass[i]) +
+                            4 +
+                            sizeOfCompactInt(objectName[i]) +
+                            4;
+                    positions[i] = position;
+                    position += sizeOfCompactInt(size[i]) + sizeOfCompactInt(offset[i]);
                 }
-                pckg++;
+                sizePositions = positions;
             }
-            ExportEntry oldEntry = exportTable.remove(index);
-            exportTable.add(index, new ExportEntry(this,
-                    0,
-                    oldEntry.objectClass,
-                    oldEntry.objectSuperClass,
-                    pckg,
-                    nameReference(namePath[namePath.length - 1]),
-                    oldEntry.objectFlags,
-                    oldEntry.offset,
-                    oldEntry.size
-            ));
-        });
+            return sizePositions[index];
+        }
+
+        private OptionalInt dataStartOffset() {
+            int min = Integer.MAX_VALUE;
+            boolean found = false;
+            for (int i = 0; i < count; i++) {
+                if (size[i] > 0) {
+                    min = Math.min(min, offset[i]);
+                    found = true;
+                }
+            }
+            return found ? OptionalInt.of(min) : OptionalInt.empty();
+        }
+
     }
 
-    public void removeExport(int index) throws UncheckedIOException {
-        if (objectReferenceByName("Core.Package", IS_CLASS) == 0) {
-            addImportEntries(Collections.singletonMap("Core.Package", "Core.Class"));
+    private static final class ImportColumns {
+        private final int count;
+        private final int[] classPackage;
+        private final int[] className;
+        private final int[] objectPackage;
+        private final int[] objectName;
+
+        private ImportColumns(int count) {
+            this.count = count;
+            this.classPackage = new int[count];
+            this.className = new int[count];
+            this.objectPackage = new int[count];
+            this.objectName = new int[count];
         }
+    }
 
-        int pckgInd = objectReferenceByName("Core.Package", IS_CLASS);
-        byte[] pckgData = compactIntToByteArray(nameReference("None"));
+    /**
+     * Read-only view over {@link ExportColumns}, entries are created on first access and reused afterwards.
+     */
+    private final class ExportList extends AbstractList<ExportEntry> implements java.util.RandomAccess {
+        private final ExportColumns columns;
+        private final ExportEntry[] entries;
+
+        private ExportList(ExportColumns columns) {
+            this.columns = columns;
+            this.entries = new ExportEntry[columns.count];
+        }
 
-        updateExportTable(exportTable -> {
-            ExportEntry entry = exportTable.get(index);
-            entry.objectClass = pckgInd;
-            entry.objectSuperClass = 0;
-            entry.objectFlags = ObjectFlag.getFlags(Public, LoadForClient, LoadForServer, LoadForEdit);
-            entry.setObjectRawData(pckgData, false);
+        @Override
+        public ExportEntry get(int index) {
+            ExportEntry entry = entries[index];
+            if (entry == null) {
+                entries[index] = entry = new ExportEntry(UnrealPackage.this, columns, index);
+            }
+            return entry;
+        }
 
-            file.setPosition(getDataEndOffset().orElseThrow(IllegalStateException::new));
-        });
+        @Override
+        public int size() {
+            return columns.count;
+        }
     }
 
-    protected static OptionalInt findPositionForNewExportEntryData(List<ExportEntry> exportTable, int size) {
-        List<ExportEntry> list = new ArrayList<>(exportTable);
-        list.sort(Comparator.comparingInt(ExportEntry::getOffset));
-        for (int i = 1; i < exportTable.size(); i++) {
-            int prevEnd = list.get(i - 1).getOffset() + list.get(i - 1).getSize();
-            if (list.get(i).getOffset() - prevEnd >= size) {
-                return OptionalInt.of(prevEnd);
+    /**
+     * Read-only view over {@link ImportColumns}, entries are created on first access and reused afterwards.
+     */
+    private final class ImportList extends AbstractList<ImportEntry> implements java.util.RandomAccess {
+        private final ImportColumns columns;
+        private final ImportEntry[] entries;
+
+        private ImportList(ImportColumns columns) {
+            this.columns = columns;
+            this.entries = new ImportEntry[columns.count];
+        }
+
+        @Override
+        public ImportEntry get(int index) {
+            ImportEntry entry = entries[index];
+            if (entry == null) {
+                entries[index] = entry = new ImportEntry(UnrealPackage.this, columns, index);
             }
+            return entry;
+        }
+
+        @Override
+        public int size() {
+            return columns.count;
         }
-        return getDataEndOffset(exportTable);
     }
 
     protected static final Predicate<String> IS_CLASS = clazz -> clazz.equalsIgnoreCase("Core.Class");
 
+    public static final class Header {
+        private final int version;
+        private final int license;
+        private final int flags;
+        private final int nameCount;
+        private final int nameOffset;
+        private final int exportCount;
+        private final int exportOffset;
+        private final int importCount;
+        private final int importOffset;
+        private final UUID guid;
+        private final int generationCount;
+
+        public Header(int version, int license, int flags, int nameCount, int nameOffset, int exportCount, int exportOffset, int importCount, int importOffset, UUID guid, int generationCount) {
+            this.version = version;
+            this.license = license;
+            this.flags = flags;
+            this.nameCount = nameCount;
+            this.nameOffset = nameOffset;
+            this.exportCount = exportCount;
+            this.exportOffset = exportOffset;
+            this.importCount = importCount;
+            this.importOffset = importOffset;
+            this.guid = guid;
+            this.generationCount = generationCount;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getLicense() {
+            return license;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getNameCount() {
+            return nameCount;
+        }
+
+        public int getNameOffset() {
+            return nameOffset;
+        }
+
+        public int getExportCount() {
+            return exportCount;
+        }
+
+        public int getExportOffset() {
+            return exportOffset;
+        }
+
+        public int getImportCount() {
+            return importCount;
+        }
+
+        public int getImportOffset() {
+            return importOffset;
+        }
+
+        public UUID getGUID() {
+            return guid;
+        }
+
+        public int getGenerationCount() {
+            return generationCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Header{" +
+                    "version=" + version +
+                    ", license=" + license +
+                    ", flags=" + flags +
+                    ", names=" + nameCount +
+                    ", exports=" + exportCount +
+                    ", imports=" + importCount +
+                    ", guid=" + guid +
+                    '}';
+        }
+    }
+
     protected static abstract class PackageEntry<T extends PackageEntry<T>> {
         private final UnrealPackage unrealPackage;
         private final int index;
@@ -885,7 +1259,7 @@ public class UnrealPackage implements AutoCloseable {
         }
 
         public int hashCode() {
-            return name.hashCode();
+            return caseInsensitiveHashCode(name);
         }
 
         public NameEntry previous() {
@@ -897,12 +1271,12 @@ public class UnrealPackage implements AutoCloseable {
         }
     }
 
+    private static final long CORE_CLASS_HASH = ObjectIndex.hash(0, "Core.Class");
+
     public static abstract class Entry<T extends Entry<T>> extends PackageEntry<T> {
         protected final int objectPackage;
         protected final int objectName;
 
-        private Reference<String> innerName = new SoftReference<>(null);
-
         protected Entry(UnrealPackage unrealPackage, int index, int objectPackage, int objectName) {
             super(unrealPackage, index);
             this.objectPackage = objectPackage;
@@ -918,21 +1292,63 @@ public class UnrealPackage implements AutoCloseable {
         }
 
         public String getObjectInnerFullName() {
-            String str = innerName.get();
-            if (str == null) {
-                Entry pckg = getObjectPackage();
-                str = pckg == null ? getObjectName().getName() : pckg.getObjectInnerFullName() + '.' + getObjectName().getName();
-                innerName = new SoftReference<>(str);
+            StringBuilder sb = new StringBuilder();
+            appendObjectInnerFullName(sb);
+            return sb.toString();
+        }
+
+        private void appendObjectInnerFullName(StringBuilder sb) {
+            Entry<?> pckg = getObjectPackage();
+            if (pckg != null) {
+                pckg.appendObjectInnerFullName(sb);
+                sb.append('.');
             }
-            return str;
+            sb.append(getObjectName().getName());
         }
 
         public String getObjectFullName() {
             return getObjectInnerFullName();
         }
 
+        /**
+         * @return case-insensitive hash of {@link #getObjectInnerFullName()}
+         */
+        public long getObjectInnerPathHash() {
+            ObjectIndex index = getUnrealPackage().objectIndex();
+            if (index.contains(this)) {
+                return index.innerPathHash(getObjectReference());
+            }
+
+            String name = getObjectName().getName();
+            return objectPackage == 0 ?
+                    ObjectIndex.hash(0, name) :
+                    ObjectIndex.hash(ObjectIndex.hash(index.innerPathHash(objectPackage), '.'), name);
+        }
+
+        int getObjectInnerPathLength() {
+            ObjectIndex index = getUnrealPackage().objectIndex();
+            if (index.contains(this)) {
+                return index.innerPathLength(getObjectReference());
+            }
+
+            int length = getObjectName().getName().length();
+            return objectPackage == 0 ? length : index.innerPathLength(objectPackage) + 1 + length;
+        }
+
+        /**
+         * @return case-insensitive hash of {@link #getObjectFullName()}
+         */
+        public long getObjectPathHash() {
+            return getObjectInnerPathHash();
+        }
+
         public abstract String getFullClassName();
 
+        /**
+         * @return case-insensitive hash of {@link #getFullClassName()}
+         */
+        public abstract long getClassPathHash();
+
         public abstract int getObjectReference();
 
         @Override
@@ -946,13 +1362,21 @@ public class UnrealPackage implements AutoCloseable {
 
             Entry entry = (Entry) o;
 
-            return getObjectFullName().equalsIgnoreCase(entry.getObjectFullName()) &&
-                    getFullClassName().equalsIgnoreCase(entry.getFullClassName());
+            return getObjectPathHash() == entry.getObjectPathHash() &&
+                    getClassPathHash() == entry.getClassPathHash() &&
+                    PathCursor.pathEquals(new PathCursor(this, null, null), new PathCursor(entry, null, null)) &&
+                    PathCursor.pathEquals(classPath(), entry.classPath());
         }
 
+        /**
+         * @return segments of {@link #getFullClassName()}
+         */
+        abstract PathCursor classPath();
+
         @Override
         public int hashCode() {
-            return Objects.hash(getObjectFullName(), getFullClassName());
+            long h = getObjectPathHash() * 31 + getClassPathHash();
+            return (int) (h ^ (h >>> 32));
         }
 
         public String toString() {
@@ -960,6 +1384,59 @@ public class UnrealPackage implements AutoCloseable {
         }
     }
 
+    /**
+     * Walks object path segments from the last one, without building the path string.
+     */
+    static final class PathCursor {
+        private Entry<?> entry;
+        private String first;
+        private String second;
+
+        /**
+         * @param entry  last object of the path, {@code null} if the path has no entries
+         * @param first  segment following the entry chain, or the last segment if there is no entry
+         * @param second segment following {@code first}
+         */
+        PathCursor(Entry<?> entry, String first, String second) {
+            this.entry = entry;
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * @return previous segment or {@code null} if the path is exhausted
+         */
+        String next() {
+            if (entry != null) {
+                Entry<?> e = entry;
+                entry = e.objectPackage != 0 ? e.getObjectPackage() : null;
+                if (entry == null && e instanceof ExportEntry) {
+                    second = first;
+                    first = e.getUnrealPackage().getPackageName();
+                }
+                return e.getObjectName().getName();
+            }
+
+            String segment = first;
+            first = second;
+            second = null;
+            return segment;
+        }
+
+        static boolean pathEquals(PathCursor a, PathCursor b) {
+            while (true) {
+                String sa = a.next();
+                String sb = b.next();
+                if (sa == null || sb == null) {
+                    return sa == sb;
+                }
+                if (!sa.equalsIgnoreCase(sb)) {
+                    return false;
+                }
+            }
+        }
+    }
+
     public static final class ExportEntry extends Entry<ExportEntry> {
         private static boolean eraseUnusedSpace = false;
 
@@ -971,16 +1448,19 @@ public class UnrealPackage implements AutoCloseable {
             }
         }
 
+        /**
+         * Backing table row storage, {@code null} for detached entries.
+         */
+        private final ExportColumns columns;
         private int objectClass;
         private int objectSuperClass;
         private int objectFlags;
         private int size;
         private int offset;
 
-        private Reference<String> fullName = new SoftReference<>(null);
-
         public ExportEntry(UnrealPackage unrealPackage, int index, int objectClass, int objectSuperClass, int objectPackage, int objectName, int objectFlags, int size, int offset) {
             super(unrealPackage, index, objectPackage, objectName);
+            this.columns = null;
             this.objectClass = objectClass;
             this.objectSuperClass = objectSuperClass;
             this.objectFlags = objectFlags;
@@ -988,17 +1468,46 @@ public class UnrealPackage implements AutoCloseable {
             this.offset = offset;
         }
 
+        private ExportEntry(UnrealPackage unrealPackage, ExportColumns columns, int index) {
+            super(unrealPackage, index, columns.objectPackage[index], columns.objectName[index]);
+            this.columns = columns;
+        }
+
+        int objectClassRef() {
+            return columns != null ? columns.objectClass[getIndex()] : objectClass;
+        }
+
+        int objectSuperClassRef() {
+            return columns != null ? columns.objectSuperClass[getIndex()] : objectSuperClass;
+        }
+
+        private void setSize(int size) {
+            if (columns != null) {
+                columns.size[getIndex()] = size;
+            } else {
+                this.size = size;
+            }
+        }
+
+        private void setOffset(int offset) {
+            if (columns != null) {
+                columns.offset[getIndex()] = offset;
+            } else {
+                this.offset = offset;
+            }
+        }
+
         @Override
         public int getObjectReference() {
             return getIndex() + 1;
         }
 
         public Entry getObjectClass() {
-            return getUnrealPackage().objectReference(objectClass);
+            return getUnrealPackage().objectReference(objectClassRef());
         }
 
         public Entry getObjectSuperClass() {
-            return getUnrealPackage().objectReference(objectSuperClass);
+            return getUnrealPackage().objectReference(objectSuperClassRef());
         }
 
         @Override
@@ -1006,16 +1515,27 @@ public class UnrealPackage implements AutoCloseable {
             return getObjectClass() != null ? getObjectClass().getObjectFullName() : "Core.Class";
         }
 
+        @Override
+        public long getClassPathHash() {
+            return getObjectClass() != null ? getObjectClass().getObjectPathHash() : CORE_CLASS_HASH;
+        }
+
+        @Override
+        PathCursor classPath() {
+            Entry<?> objectClass = getObjectClass();
+            return objectClass != null ? new PathCursor(objectClass, null, null) : new PathCursor(null, "Class", "Core");
+        }
+
         public int getObjectFlags() {
-            return objectFlags;
+            return columns != null ? columns.objectFlags[getIndex()] : objectFlags;
         }
 
         public int getSize() {
-            return size;
+            return columns != null ? columns.size[getIndex()] : size;
         }
 
         public int getOffset() {
-            return offset;
+            return columns != null ? columns.offset[getIndex()] : offset;
         }
 
         public byte[] getObjectRawData() throws UncheckedIOException {
@@ -1023,8 +1543,8 @@ public class UnrealPackage implements AutoCloseable {
                 return new byte[0];
             }
 
-            byte[] raw = new byte[size];
-            getUnrealPackage().file.setPosition(offset);
+            byte[] raw = new byte[getSize()];
+            getUnrealPackage().file.setPosition(getOffset());
             getUnrealPackage().file.readFully(raw);
             return raw;
         }
@@ -1047,15 +1567,16 @@ public class UnrealPackage implements AutoCloseable {
         }
 
         public void setObjectRawData(byte[] data, boolean writeExportTable) throws UncheckedIOException {
-            if (data.length <= getSize()) {
+            if (data.length <= getUnrealPackage().dataCapacity(getOffset(), getSize())) {
                 getUnrealPackage().file.setPosition(getOffset());
                 getUnrealPackage().file.writeBytes(data);
                 if (data.length != getSize()) {
-                    size = data.length;
+                    int oldSize = getSize();
+                    getUnrealPackage().resizeData(getOffset(), oldSize, data.length);
+                    setSize(data.length);
 
                     if (writeExportTable) {
-                        getUnrealPackage().file.setPosition(getUnrealPackage().getExportTableOffset());
-                        getUnrealPackage().writeExportTable(getUnrealPackage().getExportTable());
+                        getUnrealPackage().writeExportSize(this, oldSize);
                     }
                 }
             } else {
@@ -1064,26 +1585,27 @@ public class UnrealPackage implements AutoCloseable {
                     getUnrealPackage().file.writeBytes(new byte[getSize()]);
                 }
 
-                boolean isLast = getUnrealPackage().getExportTable()
-                        .parallelStream()
-                        .filter(entry -> entry.getSize() > 0)
-                        .mapToInt(ExportEntry::getOffset)
-                        .max()
-                        .orElseThrow(IllegalStateException::new) == offset;
-                int newOffset = isLast ? offset :
-                        findPositionForNewExportEntryData(getUnrealPackage().getExportTable(), data.length).orElseThrow(IllegalStateException::new);
+                // tables may be overwritten by new data
+                List<NameEntry> nameTable = getUnrealPackage().getNameTable();
+                List<ImportEntry> importTable = getUnrealPackage().getImportTable();
+
+                getUnrealPackage().freeData(getOffset(), getSize());
+                int newOffset = getUnrealPackage().allocateData(data.length);
                 getUnrealPackage().file.setPosition(newOffset);
-                offset = getUnrealPackage().file.getPosition();
-                size = data.length;
+                setOffset(newOffset);
+                setSize(data.length);
                 getUnrealPackage().file.writeBytes(data);
 
-                getUnrealPackage().file.setPosition(getUnrealPackage().getDataEndOffset().orElseThrow(IllegalStateException::new));
+                getUnrealPackage().file.setPosition(getUnrealPackage().freeSpace().getEnd());
                 int nameTablePosition = getUnrealPackage().file.getPosition();
-                getUnrealPackage().writeNameTable(getUnrealPackage().getNameTable());
+                getUnrealPackage().writeNameTable(nameTable);
                 int importTablePosition = getUnrealPackage().file.getPosition();
-                getUnrealPackage().writeImportTable(getUnrealPackage().getImportTable());
+                getUnrealPackage().writeImportTable(importTable);
                 int exportTablePosition = getUnrealPackage().file.getPosition();
                 getUnrealPackage().writeExportTable(getUnrealPackage().getExportTable());
+                if (columns != null) {
+                    columns.sizePositions = null;
+                }
 
                 getUnrealPackage().file.setPosition(NAME_OFFSET_OFFSET);
                 getUnrealPackage().file.writeInt(nameTablePosition);
@@ -1096,12 +1618,12 @@ public class UnrealPackage implements AutoCloseable {
 
         @Override
         public String getObjectFullName() {
-            String str = fullName.get();
-            if (str == null) {
-                str = getUnrealPackage().getPackageName() + "." + getObjectInnerFullName();
-                fullName = new SoftReference<>(str);
-            }
-            return str;
+            return getUnrealPackage().getPackageName() + "." + getObjectInnerFullName();
+        }
+
+        @Override
+        public long getObjectPathHash() {
+            return getUnrealPackage().objectIndex().exportFullPathHash(getObjectInnerPathHash(), getObjectInnerPathLength());
         }
 
         @Override
@@ -1116,39 +1638,61 @@ public class UnrealPackage implements AutoCloseable {
     }
 
     public static final class ImportEntry extends Entry<ImportEntry> {
+        /**
+         * Backing table row storage, {@code null} for detached entries.
+         */
+        private final ImportColumns columns;
         private int classPackage;
         private int className;
 
-        private Reference<String> fullClassName = new SoftReference<>(null);
-
         public ImportEntry(UnrealPackage unrealPackage, int index, int classPackage, int className, int objectPackage, int objectName) {
             super(unrealPackage, index, objectPackage, objectName);
+            this.columns = null;
             this.classPackage = classPackage;
             this.className = className;
         }
 
+        private ImportEntry(UnrealPackage unrealPackage, ImportColumns columns, int index) {
+            super(unrealPackage, index, columns.objectPackage[index], columns.objectName[index]);
+            this.columns = columns;
+        }
+
+        int classPackageRef() {
+            return columns != null ? columns.classPackage[getIndex()] : classPackage;
+        }
+
+        int classNameRef() {
+            return columns != null ? columns.className[getIndex()] : className;
+        }
+
         @Override
         public int getObjectReference() {
             return -(getIndex() + 1);
         }
 
         public NameEntry getClassPackage() {
-            return getUnrealPackage().getNameTable().get(classPackage);
+            return getUnrealPackage().getNameTable().get(classPackageRef());
         }
 
         public NameEntry getClassName() {
-            return getUnrealPackage().getNameTable().get(className);
+            return getUnrealPackage().getNameTable().get(classNameRef());
         }
 
         @Override
         public String getFullClassName() {
-            String str = fullClassName.get();
-            if (str == null) {
-                NameEntry pckg = getClassPackage();
-                str = pckg == null ? getClassName().getName() : pckg.getName() + '.' + getClassName().getName();
-                fullClassName = new SoftReference<>(str);
-            }
-            return str;
+            NameEntry pckg = getClassPackage();
+            return pckg == null ? getClassName().getName() : pckg.getName() + '.' + getClassName().getName();
+        }
+
+        @Override
+        public long getClassPathHash() {
+            return ObjectIndex.hash(ObjectIndex.hash(ObjectIndex.hash(0, getClassPackage().getName()), '.'), getClassName().getName());
+        }
+
+        @Override
+        PathCursor classPath() {
+            NameEntry pckg = getClassPackage();
+            return new PathCursor(null, getClassName().getName(), pckg == null ? null : pckg.getName());
         }
 
         @Override
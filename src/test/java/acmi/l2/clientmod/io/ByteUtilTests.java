@@ -23,6 +23,8 @@ package acmi.l2.clientmod.io;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.UUID;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -40,6 +42,27 @@ public class ByteUtilTests {
         assertArrayEquals(new byte[]{(byte) 0b11000000, (byte) 0b10000000, (byte) 0b00000001}, ByteUtil.compactIntToByteArray(-8192));
     }
 
+    @Test
+    public void compactIntOffsets() {
+        int[] values = {0, 1, -1, 63, 64, -64, 8191, 8192, 1 << 20, 1 << 27, Integer.MAX_VALUE, -Integer.MAX_VALUE, Integer.MIN_VALUE};
+        byte[] array = new byte[values.length * 5 + 3];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(array.length);
+
+        int off = 3;
+        for (int v : values) {
+            byte[] expected = ByteUtil.compactIntToByteArray(v);
+            assertEquals(expected.length, ByteUtil.sizeOfCompactInt(v));
+            assertEquals(expected.length, ByteUtil.putCompactInt(array, off, v));
+            assertEquals(expected.length, ByteUtil.putCompactInt(buffer, off, v));
+            assertArrayEquals(expected, Arrays.copyOfRange(array, off, off + expected.length));
+            assertEquals(v, ByteUtil.getCompactInt(array, off));
+            assertEquals(v, ByteUtil.getCompactInt(buffer, off));
+            assertEquals(expected.length, ByteUtil.compactIntLength(array, off));
+            assertEquals(expected.length, ByteUtil.compactIntLength(buffer, off));
+            off += expected.length;
+        }
+    }
+
     @Test
     public void uuid() {
         UUID uuid = UUID.randomUUID();
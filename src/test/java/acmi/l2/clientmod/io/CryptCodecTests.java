@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CryptCodecTests {
+    @Test
+    public void keys() throws IOException {
+        assertTrue(CryptCodec.of(0, "Engine.u").isIdentity());
+        assertEquals(0xACACACAC, CryptCodec.of(111, "Engine.u").getKey());
+        int xb = CryptCodec.getCryptKey("Engine.u");
+        assertEquals(xb * 0x01010101, CryptCodec.of(121, "ENGINE.U").getKey());
+        assertEquals(xb * 0x0101010101010101L, CryptCodec.of(121, "engine.u").getWideKey());
+    }
+
+    @Test
+    public void apply() throws IOException {
+        CryptCodec codec = CryptCodec.of(121, "Test.utx");
+        byte[] data = new byte[100];
+        new Random(0).nextBytes(data);
+
+        for (int off = 0; off < 9; off++) {
+            for (int len = 0; len <= data.length - off; len += 7) {
+                byte[] expected = data.clone();
+                for (int i = off; i < off + len; i++) {
+                    expected[i] ^= codec.getKey();
+                }
+
+                byte[] array = data.clone();
+                codec.apply(array, off, len);
+                assertArrayEquals(expected, array);
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data);
+                codec.apply(direct, off, len);
+                byte[] fromDirect = new byte[data.length];
+                direct.position(0);
+                direct.get(fromDirect);
+                assertArrayEquals(expected, fromDirect);
+            }
+        }
+    }
+
+    @Test
+    public void applyOverlapping() throws IOException {
+        CryptCodec codec = CryptCodec.of(111, "Test.utx");
+        byte[] data = new byte[100];
+        new Random(1).nextBytes(data);
+
+        for (int len : new int[]{5, 16, 37, 64}) {
+            for (int shift = -9; shift <= 9; shift++) {
+                int srcOff = 20;
+                int dstOff = srcOff + shift;
+
+                byte[] expected = data.clone();
+                System.arraycopy(expected, srcOff, expected, dstOff, len);
+                for (int i = dstOff; i < dstOff + len; i++) {
+                    expected[i] ^= codec.getKey();
+                }
+
+                byte[] array = data.clone();
+                codec.apply(array, srcOff, array, dstOff, len);
+                assertArrayEquals("len " + len + ", shift " + shift, expected, array);
+            }
+        }
+    }
+}
@@ -23,10 +23,15 @@ package acmi.l2.clientmod.io;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class DataIOTests {
     @Test
@@ -132,6 +137,44 @@ public class DataIOTests {
         }
     }
 
+    @Test
+    public void lineEncoding() {
+        RandomAccessMemory memory = new RandomAccessMemory("test", UnrealPackage.getDefaultCharset());
+        char[] longLine = new char[100_000];
+        Arrays.fill(longLine, 'a');
+
+        String[] values = {"한국어", "\uD83D\uDE00", new String(longLine), "None"};
+        for (String v : values) {
+            memory.writeLine(v);
+        }
+        memory.setPosition(0);
+
+        assertEquals(7, memory.readCompactInt());
+        memory.setPosition(0);
+        for (String v : values) {
+            assertEquals(v, memory.readLine());
+        }
+
+        memory.setPosition(8);
+        assertEquals(-3, memory.readCompactInt());
+    }
+
+    @Test
+    public void asciiFastPath() {
+        assertTrue(StringCodec.isAsciiCompatible(UnrealPackage.getDefaultCharset()));
+        assertTrue(StringCodec.isAsciiCompatible(StandardCharsets.UTF_8));
+        assertFalse(StringCodec.isAsciiCompatible(StandardCharsets.UTF_16LE));
+
+        byte[] bytes = new byte[40];
+        Arrays.fill(bytes, (byte) 'a');
+        for (int i = 0; i < bytes.length; i++) {
+            assertTrue(StringCodec.isAscii(bytes, 1, bytes.length - 1));
+            bytes[i] = (byte) 0xb0;
+            assertEquals(i == 0, StringCodec.isAscii(bytes, 1, bytes.length - 1));
+            bytes[i] = 'a';
+        }
+    }
+
     @Test
     public void utf() {
         ByteBuffer buffer = ByteBuffer.allocate(20);
@@ -163,4 +206,48 @@ public class DataIOTests {
         buffer.flip();
         assertArrayEquals(array, DataInput.dataInput(buffer, null).readByteArray());
     }
+
+    @Test
+    public void arrays() {
+        short[] shorts = {Short.MIN_VALUE, -1, 0, 1, Short.MAX_VALUE};
+        int[] ints = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+        float[] floats = {Float.MIN_VALUE, -1.5f, 0f, 1.5f, Float.MAX_VALUE};
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(100), ByteBuffer.allocateDirect(100)}) {
+            DataOutput output = DataOutput.dataOutput(buffer, null);
+            output.writeByte(1);
+            output.writeShorts(shorts, 0, shorts.length);
+            output.writeInts(ints, 1, 3);
+            output.writeFloats(floats, 0, floats.length);
+            output.writeCompactInts(ints, 0, ints.length);
+
+            buffer.position(0);
+            DataInput input = DataInput.dataInput(buffer, null);
+            assertEquals(1, input.readUnsignedByte());
+
+            short[] shortsRead = new short[shorts.length];
+            input.readShorts(shortsRead, 0, shortsRead.length);
+            assertArrayEquals(shorts, shortsRead);
+            int[] intsRead = new int[3];
+            input.readInts(intsRead, 0, 3);
+            assertArrayEquals(new int[]{-1, 0, 1}, intsRead);
+            float[] floatsRead = new float[floats.length];
+            input.readFloats(floatsRead, 0, floatsRead.length);
+            assertArrayEquals(floats, floatsRead, 0f);
+            intsRead = new int[ints.length];
+            input.readCompactInts(intsRead, 0, intsRead.length);
+            assertArrayEquals(ints, intsRead);
+        }
+
+        RandomAccessMemory memory = new RandomAccessMemory("test", null);
+        DataInput stream = DataInput.dataInput(new ByteArrayInputStream(new byte[]{1, 0, 2, 0, 0, (byte) 0x80}), null);
+        memory.writeInts(ints, 0, ints.length);
+        memory.setPosition(0);
+        int[] intsRead = new int[ints.length];
+        memory.readInts(intsRead, 0, intsRead.length);
+        assertArrayEquals(ints, intsRead);
+        short[] shortsRead = new short[3];
+        stream.readShorts(shortsRead, 0, 3);
+        assertArrayEquals(new short[]{1, 2, Short.MIN_VALUE}, shortsRead);
+    }
 }
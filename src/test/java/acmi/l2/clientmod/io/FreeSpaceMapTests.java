@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FreeSpaceMapTests {
+    @Test
+    public void bestFit() {
+        // used: [100, 110) [120, 125) [140, 150) [150, 160), zero-size entries are ignored by callers
+        long[] ranges = {
+                150L << 32 | 10,
+                100L << 32 | 10,
+                140L << 32 | 10,
+                120L << 32 | 5
+        };
+        FreeSpaceMap space = FreeSpaceMap.of(ranges, ranges.length, 0);
+        assertEquals(100, space.getStart());
+        assertEquals(160, space.getEnd());
+        assertEquals(2, space.getHoleCount());
+
+        assertEquals(110, space.allocate(8));
+        assertEquals(125, space.allocate(12));
+        assertEquals(118, space.allocate(2));
+        assertEquals(137, space.allocate(3));
+        assertEquals(0, space.getHoleCount());
+        assertEquals(160, space.allocate(4));
+        assertEquals(164, space.getEnd());
+    }
+
+    @Test
+    public void coalescing() {
+        long[] ranges = {
+                0L << 32 | 10,
+                10L << 32 | 10,
+                20L << 32 | 10,
+                30L << 32 | 10
+        };
+        FreeSpaceMap space = FreeSpaceMap.of(ranges, ranges.length, 0);
+
+        space.free(10, 10);
+        space.free(20, 5);
+        assertEquals(1, space.getHoleCount());
+        assertEquals(10, space.allocate(15));
+
+        space.free(25, 5);
+        space.free(30, 10);
+        assertEquals(25, space.getEnd());
+        assertEquals(0, space.getHoleCount());
+
+        space.free(0, 25);
+        assertTrue(space.isEmpty());
+    }
+
+    @Test
+    public void sharedRanges() {
+        long[] ranges = {
+                0L << 32 | 10,
+                5L << 32 | 10
+        };
+        FreeSpaceMap space = FreeSpaceMap.of(ranges, ranges.length, 0);
+        space.free(0, 10);
+        assertEquals(15, space.getEnd());
+        assertEquals(15, space.allocate(10));
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2021 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RandomAccessFileTests {
+    private static final Charset CHARSET = UnrealPackage.getDefaultCharset();
+
+    private static File createFile(String name, int cryptVer, byte[] data) throws IOException {
+        File dir = Files.createTempDirectory("l2io").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        if (cryptVer != 0) {
+            Files.write(file.toPath(), ("Lineage2Ver" + cryptVer).getBytes(UTF_16LE));
+        } else {
+            Files.write(file.toPath(), new byte[0]);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, false, CHARSET)) {
+            raf.writeBytes(data);
+        }
+        return file;
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readAll(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, true, CHARSET)) {
+            byte[] data = new byte[(int) file.length() - (raf.getCryptVersion() != 0 ? 28 : 0)];
+            raf.readFully(data);
+            return data;
+        }
+    }
+
+    @Test
+    public void mappedRead() throws IOException {
+        for (int cryptVer : new int[]{0, 111, 121}) {
+            byte[] data = randomData(100_000);
+            File file = createFile("Test.utx", cryptVer, data);
+
+            try (MappedRandomAccessFile mapped = new MappedRandomAccessFile(file, true, CHARSET)) {
+                assertEquals(cryptVer, mapped.getCryptVersion());
+
+                byte[] read = new byte[data.length];
+                mapped.readFully(read);
+                assertArrayEquals(data, read);
+
+                mapped.setPosition(10);
+                assertEquals(data[10] & 0xff, mapped.readUnsignedByte());
+
+                mapped.setPosition(data.length);
+                try {
+                    mapped.readUnsignedByte();
+                    fail();
+                } catch (UncheckedIOException ignore) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void mappedWrite() throws IOException {
+        for (int cryptVer : new int[]{0, 111, 121}) {
+            byte[] data = randomData(1000);
+            File file = createFile("Test.ukx", cryptVer, data);
+
+            byte[] tail = randomData(200_000);
+            try (MappedRandomAccessFile mapped = new MappedRandomAccessFile(file, false, CHARSET)) {
+                mapped.setPosition(500);
+                mapped.writeBytes(tail);
+                mapped.writeByte(0x7f);
+                mapped.setPosition(1000);
+                mapped.trimToPosition();
+                mapped.setPosition(0);
+                mapped.writeInt(0x12345678);
+            }
+
+            byte[] expected = data.clone();
+            System.arraycopy(tail, 0, expected, 500, 500);
+            expected[0] = 0x78;
+            expected[1] = 0x56;
+            expected[2] = 0x34;
+            expected[3] = 0x12;
+            assertEquals(1000 + (cryptVer != 0 ? 28 : 0), file.length());
+            assertArrayEquals(expected, readAll(file));
+        }
+    }
+
+    @Test
+    public void mappedTrimKeepsMapping() throws IOException {
+        byte[] data = randomData(1000);
+        File file = createFile("Test.u", 0, data);
+
+        try (MappedRandomAccessFile mapped = new MappedRandomAccessFile(file, false, CHARSET)) {
+            mapped.setPosition(1000);
+            mapped.writeBytes(randomData(100_000));
+            mapped.setPosition(600);
+            mapped.trimToPosition();
+            assertEquals(600, mapped.length());
+            assertTrue(file.length() >= 101_000);
+
+            mapped.setPosition(800);
+            mapped.trimToPosition();
+            assertEquals(800, mapped.length());
+            mapped.setPosition(700);
+            assertEquals(0, mapped.readInt());
+
+            try (MappedRandomAccessFile session = mapped.openNewSession(true)) {
+                assertEquals(800, session.length());
+            }
+
+            mapped.flush();
+        }
+
+        byte[] expected = new byte[800];
+        System.arraycopy(data, 0, expected, 0, 600);
+        assertEquals(800, file.length());
+        assertArrayEquals(expected, readAll(file));
+    }
+
+    @Test
+    public void mappedSessionsTruncateOnLastClose() throws IOException {
+        byte[] data = randomData(1000);
+        File file = createFile("Test.u", 0, data);
+
+        byte[] tail = randomData(100_000);
+        try (MappedRandomAccessFile mapped = new MappedRandomAccessFile(file, false, CHARSET)) {
+            MappedRandomAccessFile session = mapped.openNewSession(false);
+            session.setPosition(1000);
+            session.writeBytes(tail);
+            session.close();
+            assertTrue(file.length() >= 101_000);
+
+            mapped.setPosition(0);
+            mapped.writeInt(0);
+        }
+
+        byte[] expected = new byte[101_000];
+        System.arraycopy(data, 4, expected, 4, 996);
+        System.arraycopy(tail, 0, expected, 1000, tail.length);
+        assertEquals(101_000, file.length());
+        assertArrayEquals(expected, readAll(file));
+    }
+
+    @Test
+    public void mappedSessionsShareLength() throws IOException {
+        byte[] data = randomData(1000);
+        File file = createFile("Test.u", 0, data);
+
+        MappedRandomAccessFile w1 = new MappedRandomAccessFile(file, false, CHARSET);
+        MappedRandomAccessFile w2 = w1.openNewSession(false);
+        w1.setPosition(100);
+        w1.trimToPosition();
+        assertEquals(100, w2.length());
+        w1.close();
+        w2.close();
+        assertEquals(100, file.length());
+
+        try (MappedRandomAccessFile x1 = new MappedRandomAccessFile(file, false, CHARSET);
+             MappedRandomAccessFile x2 = x1.openNewSession(false);
+             MappedRandomAccessFile reader = new MappedRandomAccessFile(file, true, CHARSET)) {
+            x1.setPosition(100);
+            x1.writeInt(0x12345678);
+            x1.writeBytes(randomData(100_000));
+            x2.setPosition(100);
+            assertEquals(0x12345678, x2.readInt());
+            assertEquals(100_104, reader.length());
+            reader.setPosition(100_100);
+            reader.readInt();
+        }
+        assertEquals(100_104, file.length());
+    }
+
+    @Test
+    public void concurrentRead() throws Exception {
+        for (int cryptVer : new int[]{0, 121}) {
+            byte[] data = randomData(300_000);
+            File file = createFile("Textures.utx", cryptVer, data);
+
+            try (ConcurrentRandomAccessFile shared = new ConcurrentRandomAccessFile(file, true, CHARSET)) {
+                List<Callable<Boolean>> tasks = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    int seed = t;
+                    tasks.add(() -> {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 200; i++) {
+                            int offset = random.nextInt(data.length - 1000);
+                            int size = random.nextInt(1000);
+                            shared.setPosition(offset);
+                            if (shared.readUnsignedByte() != (data[offset] & 0xff)) {
+                                return false;
+                            }
+                            byte[] chunk = new byte[size];
+                            shared.readFully(chunk);
+                            if (!Arrays.equals(chunk, Arrays.copyOfRange(data, offset + 1, offset + 1 + size))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    });
+                }
+
+                ExecutorService executor = Executors.newFixedThreadPool(8);
+                try {
+                    for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                        assertTrue(result.get());
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void concurrentWrite() throws IOException {
+        byte[] data = randomData(1000);
+        File file = createFile("Test.u", 111, data);
+
+        try (ConcurrentRandomAccessFile ra = new ConcurrentRandomAccessFile(file, false, CHARSET);
+             RandomAccess session = ra.openNewSession(true)) {
+            session.setPosition(100);
+            assertEquals(data[100] & 0xff, session.readUnsignedByte());
+
+            ra.setPosition(100);
+            ra.writeByte(data[100] + 1);
+            ra.setPosition(1000);
+            ra.writeInt(-1);
+
+            session.setPosition(100);
+            assertEquals((data[100] + 1) & 0xff, session.readUnsignedByte());
+            session.setPosition(1000);
+            assertEquals(-1, session.readInt());
+        }
+    }
+
+    @Test
+    public void cached() throws IOException {
+        byte[] data = randomData(10_000);
+        File file = createFile("Test.utx", 111, data);
+
+        RandomAccessFile source = new RandomAccessFile(file, false, CHARSET);
+        try (CachedRandomAccess cached = new CachedRandomAccess(source, source.length(), 256, 4)) {
+            assertEquals(data.length, cached.length());
+
+            byte[] read = new byte[data.length];
+            cached.readFully(read);
+            assertArrayEquals(data, read);
+
+            cached.setPosition(250);
+            cached.writeInt(0x01020304);
+            data[250] = 4;
+            data[251] = 3;
+            data[252] = 2;
+            data[253] = 1;
+            cached.setPosition(249);
+            assertEquals(data[249] & 0xff, cached.readUnsignedByte());
+            assertEquals(0x01020304, cached.readInt());
+
+            cached.setPosition(5000);
+            cached.trimToPosition();
+            cached.writeByte(1);
+            assertEquals(5001, cached.length());
+            cached.setPosition(4999);
+            assertEquals(data[4999] & 0xff, cached.readUnsignedByte());
+            assertEquals(1, cached.readUnsignedByte());
+        }
+
+        byte[] expected = Arrays.copyOf(data, 5001);
+        expected[5000] = 1;
+        assertArrayEquals(expected, readAll(file));
+    }
+
+    @Test
+    public void bufferedWrites() throws IOException {
+        byte[] data = randomData(20_000);
+        File file = createFile("Test.usx", 121, data);
+
+        RandomAccessMemory model = new RandomAccessMemory("Test", data.clone(), CHARSET);
+        Random random = new Random(0);
+        try (RandomAccessFile raf = new RandomAccessFile(file, false, CHARSET)) {
+            for (int i = 0; i < 2000; i++) {
+                int position = random.nextInt(data.length);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        raf.setPosition(position);
+                        model.setPosition(position);
+                        break;
+                    case 1:
+                        int v = random.nextInt();
+                        raf.writeInt(v);
+                        model.writeInt(v);
+                        break;
+                    case 2:
+                        byte[] chunk = randomData(random.nextInt(10_000));
+                        raf.writeBytes(chunk);
+                        model.writeBytes(chunk);
+                        break;
+                    case 3:
+                        if (model.getPosition() < model.length()) {
+                            assertEquals(model.readUnsignedByte(), raf.readUnsignedByte());
+                        }
+                        break;
+                }
+                assertEquals(model.getPosition(), raf.getPosition());
+                assertEquals(model.length(), raf.length());
+            }
+
+            raf.flush();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            model.writeTo(DataOutput.dataOutput(expected, CHARSET));
+            try (RandomAccess session = raf.openNewSession(true)) {
+                byte[] read = new byte[model.length()];
+                session.readFully(read);
+                assertArrayEquals(expected.toByteArray(), read);
+            }
+        }
+    }
+
+    @Test
+    public void deferredWrites() throws IOException {
+        byte[] data = randomData(5000);
+        File file = createFile("Test.u", 111, data);
+
+        try (BufferedRandomAccessFile braf = new BufferedRandomAccessFile(file, false, CHARSET, true)) {
+            braf.setPosition(100);
+            braf.writeInt(-1);
+            braf.setPosition(6000);
+            braf.writeInt(-1);
+            assertTrue(braf.hasUncommittedChanges());
+            assertArrayEquals(data, readAll(file));
+
+            braf.commit();
+            assertFalse(braf.hasUncommittedChanges());
+            byte[] committed = readAll(file);
+            assertEquals(6004, committed.length);
+            assertEquals(-1, ByteBuffer.wrap(committed, 100, 4).getInt());
+            assertEquals(-1, ByteBuffer.wrap(committed, 6000, 4).getInt());
+
+            braf.setPosition(10);
+            braf.writeInt(0);
+            braf.setPosition(50);
+            braf.trimToPosition();
+            braf.rollback();
+            assertEquals(6004, braf.length());
+            byte[] restored = new byte[braf.length()];
+            braf.setPosition(0);
+            braf.readFully(restored);
+            assertArrayEquals(committed, restored);
+        }
+    }
+
+    @Test
+    public void lazyBuffered() throws Exception {
+        byte[] data = randomData(10_000);
+        File file = createFile("Test.utx", 121, data);
+
+        try (LazyBufferedRandomAccessFile lazy = new LazyBufferedRandomAccessFile(file, false, CHARSET, 1024)) {
+            assertFalse(lazy.isLoaded());
+            lazy.setPosition(5000);
+            assertEquals(ByteBuffer.wrap(data, 5000, 4).order(ByteOrder.LITTLE_ENDIAN).getInt(), lazy.readInt());
+
+            lazy.setPosition(9990);
+            lazy.writeBytes(new byte[20]);
+            assertEquals(10_010, lazy.length());
+
+            try (RandomAccess session = lazy.openNewSession(true)) {
+                byte[] read = new byte[data.length];
+                session.readFully(read);
+                assertArrayEquals(Arrays.copyOf(data, 9990), Arrays.copyOf(read, 9990));
+            }
+
+            lazy.warmUp().join();
+            assertTrue(lazy.isLoaded());
+        }
+
+        byte[] expected = Arrays.copyOf(data, 10_010);
+        Arrays.fill(expected, 9990, 10_010, (byte) 0);
+        assertArrayEquals(expected, readAll(file));
+    }
+
+    private static final int[] ARRAY = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+
+    private static int compactValue(int i) {
+        return (i % 2 == 0 ? 1 : -1) << (i % 32);
+    }
+
+    private static void writePrimitives(RandomAccess ra) {
+        ra.setPosition(1);
+        for (int i = 0; i < 300; i++) {
+            ra.writeShort(0x8000 + i);
+            ra.writeInt(0x12345678 * i);
+            ra.writeLong(0x123456789abcdefL * i);
+            ra.writeCompactInt(compactValue(i));
+        }
+        ra.writeInts(ARRAY, 0, ARRAY.length);
+        ra.writeFloats(new float[]{1.5f, -2.5f}, 0, 2);
+    }
+
+    private static void checkPrimitives(RandomAccess ra) {
+        ra.setPosition(1);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(0x8000 + i, ra.readUnsignedShort());
+            assertEquals(0x12345678 * i, ra.readInt());
+            assertEquals(0x123456789abcdefL * i, ra.readLong());
+            assertEquals(compactValue(i), ra.readCompactInt());
+        }
+        int[] ints = new int[ARRAY.length];
+        ra.readInts(ints, 0, ints.length);
+        assertArrayEquals(ARRAY, ints);
+        float[] floats = new float[2];
+        ra.readFloats(floats, 0, 2);
+        assertArrayEquals(new float[]{1.5f, -2.5f}, floats, 0f);
+    }
+
+    @Test
+    public void primitives() throws IOException {
+        byte[] data = randomData(5000);
+
+        File file = createFile("Test.u", 111, data);
+        try (RandomAccessFile raf = new RandomAccessFile(file, false, CHARSET)) {
+            writePrimitives(raf);
+            checkPrimitives(raf);
+        }
+        try (MappedRandomAccessFile mapped = new MappedRandomAccessFile(file, false, CHARSET)) {
+            checkPrimitives(mapped);
+            writePrimitives(mapped);
+        }
+        try (ConcurrentRandomAccessFile concurrent = new ConcurrentRandomAccessFile(file, false, CHARSET)) {
+            checkPrimitives(concurrent);
+            writePrimitives(concurrent);
+        }
+        RandomAccessFile source = new RandomAccessFile(file, false, CHARSET);
+        try (CachedRandomAccess cached = new CachedRandomAccess(source, source.length(), 64, 4)) {
+            checkPrimitives(cached);
+            writePrimitives(cached);
+        }
+        try (BufferedRandomAccessFile buffered = new BufferedRandomAccessFile(file, false, CHARSET, true)) {
+            checkPrimitives(buffered);
+            writePrimitives(buffered);
+            buffered.commit();
+        }
+        try (LazyBufferedRandomAccessFile lazy = new LazyBufferedRandomAccessFile(file, false, CHARSET, 64)) {
+            checkPrimitives(lazy);
+            writePrimitives(lazy);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, true, CHARSET)) {
+            checkPrimitives(raf);
+        }
+
+        SegmentedRandomAccessMemory segmented = new SegmentedRandomAccessMemory("test", CHARSET, 64, false);
+        writePrimitives(segmented);
+        checkPrimitives(segmented);
+
+        RandomAccessMemory memory = new RandomAccessMemory("test", CHARSET);
+        writePrimitives(memory);
+        checkPrimitives(memory);
+    }
+
+    @Test
+    public void transcode() throws IOException {
+        byte[] data = randomData(3_000_000);
+        File file = createFile("Test.utx", 111, data);
+        File plain = new File(file.getParentFile(), "Plain.utx");
+        plain.deleteOnExit();
+
+        CryptTranscoder transcoder = new CryptTranscoder(1 << 16);
+        assertTrue(transcoder.transcode(file.toPath(), plain.toPath(), 0));
+        assertArrayEquals(data, Files.readAllBytes(plain.toPath()));
+
+        assertFalse(transcoder.transcode(file.toPath(), 111));
+        assertEquals(2, transcoder.transcodeDirectory(file.getParentFile().toPath(), 121, p -> p.toString().endsWith(".utx"), 2));
+        assertEquals(121, CryptTranscoder.getCryptVersion(file.toPath()));
+        assertEquals(121, CryptTranscoder.getCryptVersion(plain.toPath()));
+        assertArrayEquals(data, readAll(file));
+        assertArrayEquals(data, readAll(plain));
+    }
+
+    @Test
+    public void transcodeKeepsPermissions() throws IOException {
+        File file = createFile("Test.utx", 111, randomData(1000));
+        if (!Files.getFileStore(file.toPath()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            return;
+        }
+
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+        Files.setPosixFilePermissions(file.toPath(), permissions);
+        assertTrue(new CryptTranscoder().transcode(file.toPath(), 121));
+        assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+        assertArrayEquals(new String[]{file.getName()}, file.getParentFile().list());
+    }
+
+    @Test
+    public void lazyExtendByTrim() throws IOException {
+        byte[] data = randomData(10);
+        File file = createFile("Test.utx", 0, data);
+
+        try (LazyBufferedRandomAccessFile lazy = new LazyBufferedRandomAccessFile(file, false, CHARSET, 16)) {
+            lazy.setPosition(100);
+            lazy.trimToPosition();
+            assertEquals(100, lazy.length());
+
+            lazy.setPosition(90);
+            assertEquals(0, lazy.readUnsignedByte());
+            lazy.setPosition(0);
+            byte[] read = new byte[10];
+            lazy.readFully(read);
+            assertArrayEquals(data, read);
+
+            lazy.setPosition(95);
+            lazy.writeByte(7);
+        }
+
+        byte[] expected = new byte[100];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        expected[95] = 7;
+        assertArrayEquals(expected, readAll(file));
+    }
+}
@@ -23,9 +23,30 @@ package acmi.l2.clientmod.io;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class UnrealPackageTests {
     private static UnrealPackage createTestPackage() {
@@ -126,4 +147,477 @@ public class UnrealPackageTests {
             assertEquals("Core.Package", entry.getFullClassName());
         }
     }
+
+    @Test
+    public void segmentedMemory() {
+        SegmentedRandomAccessMemory memory = new SegmentedRandomAccessMemory("test", UnrealPackage.getDefaultCharset(), 64, true);
+        try (UnrealPackage up = UnrealPackage.create(memory, 127, 32)) {
+            up.addExportEntry("test.image", "Engine.Texture", null, new byte[300], 0);
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        memory.writeTo(DataOutput.dataOutput(data, memory.getCharset()));
+        assertEquals(memory.length(), data.size());
+
+        try (UnrealPackage up = new UnrealPackage("test", data.toByteArray())) {
+            UnrealPackage.ExportEntry entry = up.getExportTable().get(1);
+            assertEquals("test.image", entry.getObjectInnerFullName());
+            assertArrayEquals(new byte[300], entry.getObjectRawData());
+        }
+    }
+
+    @Test
+    public void namePool() {
+        NamePool pool = new NamePool();
+        UnrealPackage.setNamePool(pool);
+        try (UnrealPackage up1 = createTestPackage();
+             UnrealPackage up2 = createTestPackage()) {
+            up1.addNameEntries("Engine");
+            up2.addNameEntries("Engine");
+
+            assertSame(up1.getNameTable().get(up1.nameReference("None")).getName(),
+                    up2.getNameTable().get(up2.nameReference("None")).getName());
+            assertSame(up1.getNameTable().get(up1.nameReference("Engine")).getName(),
+                    up2.getNameTable().get(up2.nameReference("Engine")).getName());
+            assertTrue(pool.getHits() > 0);
+            assertTrue(pool.getBytesSaved() > 0);
+        } finally {
+            UnrealPackage.setNamePool(null);
+        }
+    }
+
+    @Test
+    public void nameIndex() {
+        try (UnrealPackage up = createTestPackage()) {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                names.add("Name" + i);
+            }
+            up.addNameEntries(names);
+            int size = up.getNameTable().size();
+
+            up.addNameEntries("NAME500", "name999", "None");
+            assertEquals(size, up.getNameTable().size());
+
+            for (int i = 0; i < 1000; i += 37) {
+                int index = up.nameReference("nAmE" + i);
+                assertEquals("Name" + i, up.nameReference(index));
+                assertEquals(up.getNameTable().get(index).hashCode(),
+                        new UnrealPackage.NameEntry(null, 0, "NAME" + i, 0).hashCode());
+            }
+            assertEquals(-1, up.nameReference("Name1000"));
+        }
+    }
+
+    @Test
+    public void objectIndex() {
+        try (UnrealPackage up = createTestPackage()) {
+            up.addImportEntries(Collections.singletonMap("Engine.Actor", "Core.Class"));
+            up.addExportEntry("group.texture", "Engine.Texture", null, new byte[5], 0);
+            up.addExportEntry("group.texture.sub", "Engine.Texture", null, new byte[5], 0);
+
+            for (UnrealPackage.ImportEntry entry : up.getImportTable()) {
+                String name = entry.getObjectFullName().toUpperCase();
+                assertEquals(entry.getObjectReference(), up.importReferenceByName(name, c -> c.equalsIgnoreCase(entry.getFullClassName())));
+            }
+            for (UnrealPackage.ExportEntry entry : up.getExportTable()) {
+                assertEquals(entry.getObjectReference(), up.exportReferenceByName(entry.getObjectFullName().toLowerCase(), c -> true));
+                assertEquals(entry.getObjectReference(), up.exportReferenceByName(entry.getObjectInnerFullName(), c -> true));
+            }
+
+            assertEquals(0, up.importReferenceByName("Engine.Actor", c -> c.equals("Core.Package")));
+            assertEquals(0, up.exportReferenceByName("group.texture.su", c -> true));
+            assertEquals(0, up.exportReferenceByName("texture.sub", c -> true));
+            assertEquals(up.getExportTable().size(), up.objectReferenceByName("test.Group.Texture.Sub", c -> c.equals("Engine.Texture")));
+        }
+    }
+
+    @Test
+    public void entryIdentity() {
+        try (UnrealPackage up1 = createTestPackage();
+             UnrealPackage up2 = createTestPackage()) {
+            up1.addImportEntries(Collections.singletonMap("Engine.Actor", "Core.Class"));
+            up2.addNameEntries("ENGINE", "ACTOR");
+            up2.addImportEntries(Collections.singletonMap("ENGINE.ACTOR", "Core.Class"));
+
+            Set<UnrealPackage.ImportEntry> set = new HashSet<>(up1.getImportTable());
+            for (UnrealPackage.ImportEntry entry : up2.getImportTable()) {
+                assertTrue(entry.getObjectFullName(), set.contains(entry));
+            }
+
+            UnrealPackage.ImportEntry actor = up1.getImportTable().get(up1.importReferenceByName("Engine.Actor", c -> true) * -1 - 1);
+            assertEquals(ObjectIndex.hash(0, "engine.actor"), actor.getObjectPathHash());
+            assertNotEquals(actor, up1.getImportTable().get(0));
+
+            up1.addExportEntry("group.texture", "Engine.Texture", null, new byte[5], 0);
+            up2.addExportEntry("GROUP.Texture", "Engine.Texture", null, new byte[5], 0);
+            up2.addExportEntry("group.texture", "Engine.Actor", null, new byte[5], 0);
+            List<UnrealPackage.ExportEntry> exports = up2.getExportTable();
+            assertEquals(up1.getExportTable().get(up1.getExportTable().size() - 1), exports.get(exports.size() - 2));
+            assertNotEquals(up1.getExportTable().get(up1.getExportTable().size() - 1), exports.get(exports.size() - 1));
+            assertNotEquals(up1.getExportTable().get(0), actor);
+        }
+    }
+
+    @Test
+    public void columnarTables() {
+        try (UnrealPackage up = createTestPackage()) {
+            up.addExportEntry("group.texture", "Engine.Texture", null, new byte[5], 0);
+            up.removeExport(up.getExportTable().size() - 1);
+
+            List<UnrealPackage.ExportEntry> exports = up.getExportTable();
+            assertSame(exports.get(0), exports.get(0));
+
+            int[] visited = new int[1];
+            up.visitExports((index, objectClass, objectSuperClass, objectPackage, objectName, objectFlags, size, offset) -> {
+                UnrealPackage.ExportEntry entry = exports.get(index);
+                assertEquals(entry.getObjectClass() == null ? 0 : entry.getObjectClass().getObjectReference(), objectClass);
+                assertEquals(entry.getObjectName().getIndex(), objectName);
+                assertEquals(entry.getObjectFlags(), objectFlags);
+                assertEquals(entry.getSize(), size);
+                assertEquals(entry.getOffset(), offset);
+                visited[0]++;
+            });
+            assertEquals(exports.size(), visited[0]);
+
+            visited[0] = 0;
+            up.visitImports((index, classPackage, className, objectPackage, objectName) -> {
+                UnrealPackage.ImportEntry entry = up.getImportTable().get(index);
+                assertEquals(entry.getClassName().getIndex(), className);
+                assertEquals(entry.getObjectName().getIndex(), objectName);
+                visited[0]++;
+            });
+            assertEquals(up.getImportTable().size(), visited[0]);
+
+            UnrealPackage.ExportEntry last = exports.get(exports.size() - 1);
+            assertEquals(last.getOffset() + last.getSize(), up.getDataEndOffset().getAsInt());
+        }
+    }
+
+    @Test
+    public void lazyOpen() {
+        try (UnrealPackage up = createTestPackage()) {
+            up.addExportEntry("group.texture", "Engine.Texture", null, new byte[5], 0);
+
+            RandomAccess file = up.getFile();
+            UnrealPackage.Header header = UnrealPackage.peekHeader(file);
+            assertEquals(127, header.getVersion());
+            assertEquals(32, header.getLicense());
+            assertEquals(up.getNameTable().size(), header.getNameCount());
+            assertEquals(up.getExportTable().size(), header.getExportCount());
+            assertEquals(up.getImportTable().size(), header.getImportCount());
+            assertEquals(up.getExportTableOffset(), header.getExportOffset());
+            assertEquals(up.getGUID(), header.getGUID());
+
+            UnrealPackage lazy = new UnrealPackage(file, true);
+            assertTrue(lazy.isLazy());
+            assertEquals(up.getGUID(), lazy.getGUID());
+
+            file.setPosition(3);
+            assertEquals(up.getExportTable().size(), lazy.getExportTable().size());
+            assertEquals(3, file.getPosition());
+            assertEquals(up.getExportTable().get(1).getObjectFullName(), lazy.getExportTable().get(1).getObjectFullName());
+            assertEquals(up.nameReference("texture"), lazy.nameReference("texture"));
+        }
+    }
+
+    @Test
+    public void editSession() {
+        try (UnrealPackage batched = createTestPackage();
+             UnrealPackage single = createTestPackage()) {
+            EditSession session = batched.edit();
+            for (int i = 0; i < 100; i++) {
+                byte[] data = {(byte) i, 1, 2};
+                int ref = session.addExport("group" + i % 3 + ".obj" + i, "Engine.Texture", null, data, 0);
+                assertEquals(ref, session.addExport("GROUP" + i % 3 + ".OBJ" + i, "Engine.Texture", null, data, 0));
+                single.addExportEntry("group" + i % 3 + ".obj" + i, "Engine.Texture", null, data, 0);
+                data[1] = 7;
+            }
+            session.renameExport(0, "other.obj0");
+            single.renameExport(0, "other.obj0");
+            session.removeExport(1);
+            single.removeExport(1);
+            assertEquals(0, batched.getExportTable().size());
+            session.commit();
+
+            assertEquals(single.getNameTable().size(), batched.getNameTable().size());
+            assertEquals(single.getImportTable().size(), batched.getImportTable().size());
+            assertEquals(single.getExportTable().size(), batched.getExportTable().size());
+            for (int i = 0; i < single.getExportTable().size(); i++) {
+                UnrealPackage.ExportEntry expected = single.getExportTable().get(i);
+                UnrealPackage.ExportEntry actual = batched.getExportTable().get(i);
+                assertEquals(expected.getObjectFullName(), actual.getObjectFullName());
+                assertEquals(expected.getFullClassName(), actual.getFullClassName());
+                assertArrayEquals(expected.getObjectRawData(), actual.getObjectRawData());
+            }
+        }
+    }
+
+    @Test
+    public void editSessionFailure() {
+        boolean[] fail = {false};
+        RandomAccessMemory memory = new RandomAccessMemory("test", UnrealPackage.getDefaultCharset()) {
+            @Override
+            public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+                if (fail[0]) {
+                    throw new UncheckedIOException(new IOException("test"));
+                }
+                super.writeBytes(b, off, len);
+            }
+        };
+        try (UnrealPackage up = UnrealPackage.create(memory, 127, 32)) {
+            byte[] a = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+            up.addExportEntry("a", "Engine.Texture", null, a, 0);
+            up.addExportEntry("b", "Engine.Texture", null, new byte[16], 0);
+
+            EditSession session = up.edit();
+            session.setObjectRawData(0, new byte[4]);
+            session.addExport("c", "Engine.Texture", null, new byte[]{1, 2, 3}, 0);
+            fail[0] = true;
+            try {
+                session.commit();
+                fail();
+            } catch (UncheckedIOException ignore) {
+            }
+            fail[0] = false;
+
+            assertEquals(2, up.getExportTable().size());
+            assertArrayEquals(a, up.getExportTable().get(0).getObjectRawData());
+
+            session.commit();
+            assertEquals(3, up.getExportTable().size());
+            assertArrayEquals(new byte[4], up.getExportTable().get(0).getObjectRawData());
+            assertArrayEquals(new byte[]{1, 2, 3}, up.getExportTable().get(2).getObjectRawData());
+
+            session = up.edit();
+            session.setObjectRawData(1, new byte[4]);
+            fail[0] = true;
+            try {
+                session.commit();
+                fail();
+            } catch (UncheckedIOException ignore) {
+            }
+            fail[0] = false;
+
+            up.addExportEntry("d", "Engine.Texture", null, new byte[]{7, 7, 7, 7}, 0);
+            assertArrayEquals(new byte[16], up.getExportTable().get(1).getObjectRawData());
+            assertArrayEquals(new byte[]{7, 7, 7, 7}, up.getExportTable().get(3).getObjectRawData());
+        }
+    }
+
+    @Test
+    public void reuseFreeSpace() {
+        try (UnrealPackage up = createTestPackage()) {
+            up.addExportEntry("a", "Engine.Texture", null, new byte[16], 0);
+            up.addExportEntry("b", "Engine.Texture", null, new byte[16], 0);
+
+            UnrealPackage.ExportEntry a = up.getExportTable().get(0);
+            int hole = a.getOffset();
+            a.setObjectRawData(new byte[32]);
+            assertNotEquals(hole, a.getOffset());
+
+            up.addExportEntry("c", "Engine.Texture", null, new byte[]{1, 2, 3}, 0);
+            UnrealPackage.ExportEntry c = up.getExportTable().get(up.getExportTable().size() - 1);
+            assertEquals(hole, c.getOffset());
+            assertArrayEquals(new byte[]{1, 2, 3}, c.getObjectRawData());
+            assertArrayEquals(new byte[32], up.getExportTable().get(0).getObjectRawData());
+            assertEquals(a.getOffset() + 32, up.getDataEndOffset().getAsInt());
+        }
+    }
+
+    @Test
+    public void growthPolicy() {
+        assertEquals(16, GrowthPolicy.powerOfTwo().capacity(10));
+        assertEquals(16, GrowthPolicy.powerOfTwo().capacity(16));
+        assertEquals(125, GrowthPolicy.parse("25%").capacity(100));
+        assertEquals(7, GrowthPolicy.parse("none").capacity(7));
+
+        try (UnrealPackage up = createTestPackage()) {
+            up.setGrowthPolicy(GrowthPolicy.powerOfTwo());
+            up.addExportEntry("a", "Engine.Texture", null, new byte[10], 0);
+            up.addExportEntry("b", "Engine.Texture", null, new byte[]{1, 2, 3}, 0);
+
+            UnrealPackage.ExportEntry a = up.getExportTable().get(0);
+            UnrealPackage.ExportEntry b = up.getExportTable().get(1);
+            assertEquals(a.getOffset() + 16, b.getOffset());
+
+            int offset = a.getOffset();
+            int exportTableOffset = up.getExportTableOffset();
+            byte[] grown = new byte[14];
+            grown[13] = 42;
+            a.setObjectRawData(grown);
+            assertEquals(offset, a.getOffset());
+            assertEquals(exportTableOffset, up.getExportTableOffset());
+            assertArrayEquals(grown, new UnrealPackage(up.getFile()).getExportTable().get(0).getObjectRawData());
+
+            a.setObjectRawData(new byte[20]);
+            assertNotEquals(offset, a.getOffset());
+            assertArrayEquals(new byte[]{1, 2, 3}, b.getObjectRawData());
+        }
+    }
+
+    @Test
+    public void compact() throws IOException {
+        File dir = Files.createTempDirectory("l2io").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, "Test.utx");
+        file.deleteOnExit();
+        File copy = new File(dir, "Other.utx");
+        copy.deleteOnExit();
+
+        List<String> names = new ArrayList<>();
+        List<byte[]> data = new ArrayList<>();
+        try (UnrealPackage up = createTestPackage()) {
+            for (int i = 0; i < 20; i++) {
+                up.addExportEntry("obj" + i, "Engine.Texture", null, new byte[]{(byte) i, 1, 2, 3}, 0);
+            }
+            for (int i = 0; i < 20; i += 2) {
+                up.getExportTable().get(i).setObjectRawData(new byte[]{(byte) i, 4, 5, 6, 7, 8});
+            }
+            up.removeExport(5);
+            for (UnrealPackage.ExportEntry entry : up.getExportTable()) {
+                names.add(entry.getObjectFullName());
+                data.add(entry.getObjectRawData());
+            }
+
+            Files.write(file.toPath(), "Lineage2Ver121".getBytes(UTF_16LE));
+            try (RandomAccessFile raf = new RandomAccessFile(file, false, UnrealPackage.getDefaultCharset())) {
+                raf.setPosition(0);
+                ((RandomAccessMemory) up.getFile()).writeTo(raf);
+            }
+        }
+
+        PackageCompactor compactor = new PackageCompactor(64);
+        assertEquals(file.length() - compactor.compact(file.toPath(), copy.toPath(), null), copy.length());
+        boolean posix = Files.getFileStore(file.toPath()).supportsFileAttributeView(PosixFileAttributeView.class);
+        Set<PosixFilePermission> permissions = posix ? Files.getPosixFilePermissions(file.toPath()) : null;
+        assertTrue(compactor.compact(file.toPath()) > 0);
+        assertEquals(file.length(), copy.length());
+        if (posix) {
+            assertEquals(permissions, Files.getPosixFilePermissions(file.toPath()));
+        }
+
+        for (File f : new File[]{file, copy}) {
+            try (UnrealPackage up = new UnrealPackage(f, true)) {
+                assertEquals(121, ((RandomAccessFile) up.getFile()).getCryptVersion());
+                assertEquals(names.size(), up.getExportTable().size());
+                for (int i = 0; i < names.size(); i++) {
+                    UnrealPackage.ExportEntry entry = up.getExportTable().get(i);
+                    assertEquals(f.getName().replace(".utx", "") + names.get(i).substring(4), entry.getObjectFullName());
+                    assertArrayEquals(data.get(i), entry.getObjectRawData());
+                }
+                assertEquals(up.getDataEndOffset().getAsInt(), up.getNameTableOffset());
+            }
+        }
+    }
+
+    @Test
+    public void packageWriter() throws IOException {
+        File file = File.createTempFile("writer", ".u");
+        file.deleteOnExit();
+
+        RandomAccessMemory memory = new RandomAccessMemory("test", UnrealPackage.getDefaultCharset());
+        try (PackageWriter writer = new PackageWriter(memory, 127, 32);
+             FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+             PackageWriter channelWriter = new PackageWriter(channel, UnrealPackage.getDefaultCharset(), 127, 32)) {
+            for (int i = 0; i < 50; i++) {
+                byte[] data = {(byte) i, 1, 2};
+                int ref = writer.addExport("group" + i % 3 + ".obj" + i, "Engine.Texture", null, data, 0);
+                assertEquals(ref, writer.addExport("GROUP" + i % 3 + ".OBJ" + i, "Engine.Texture", null, new byte[0], 0));
+                assertEquals(ref, channelWriter.addExport("group" + i % 3 + ".obj" + i, "Engine.Texture", null, new ByteArrayInputStream(data), 0));
+            }
+            writer.addImport("Engine.Actor", "Core.Class");
+            channelWriter.addImport("Engine.Actor", "Core.Class");
+        }
+
+        try (UnrealPackage expected = new UnrealPackage(memory);
+             UnrealPackage actual = new UnrealPackage(file, true)) {
+            assertEquals(127, actual.getVersion());
+            assertEquals(32, actual.getLicense());
+            assertEquals(53, expected.getExportTable().size());
+            assertEquals(expected.getNameTable().size(), actual.getNameTable().size());
+            assertEquals(expected.getImportTable().size(), actual.getImportTable().size());
+            assertEquals(expected.getExportTable().size(), actual.getExportTable().size());
+            assertTrue(expected.importReferenceByName("Engine.Actor", c -> c.equals("Core.Class")) != 0);
+            for (int i = 0; i < expected.getExportTable().size(); i++) {
+                UnrealPackage.ExportEntry e = expected.getExportTable().get(i);
+                UnrealPackage.ExportEntry a = actual.getExportTable().get(i);
+                assertEquals(e.getObjectInnerFullName(), a.getObjectInnerFullName());
+                assertEquals(e.getFullClassName(), a.getFullClassName());
+                assertArrayEquals(e.getObjectRawData(), a.getObjectRawData());
+            }
+            assertEquals(expected.getDataEndOffset().getAsInt(), expected.getNameTableOffset());
+        }
+    }
+
+    @Test
+    public void packageWriterFailure() {
+        RandomAccessMemory memory = new RandomAccessMemory("test", UnrealPackage.getDefaultCharset());
+        try (PackageWriter writer = new PackageWriter(memory, 127, 32)) {
+            writer.addExport("a", "Engine.Texture", null, new byte[4], 0);
+            try {
+                writer.addExport("b", "Engine.Texture", null, new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("test");
+                    }
+                }, 0);
+                fail();
+            } catch (UncheckedIOException ignore) {
+            }
+            try {
+                writer.finish();
+                fail();
+            } catch (IllegalStateException ignore) {
+            }
+        }
+
+        memory.setPosition(12);
+        assertEquals(0, memory.readInt());
+    }
+
+    @Test
+    public void packageWriterPackageExportFailure() {
+        boolean[] fail = {false};
+        RandomAccessMemory memory = new RandomAccessMemory("test", UnrealPackage.getDefaultCharset()) {
+            @Override
+            public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+                if (fail[0]) {
+                    throw new UncheckedIOException(new IOException("test"));
+                }
+                super.writeBytes(b, off, len);
+            }
+        };
+        try (PackageWriter writer = new PackageWriter(memory, 127, 32)) {
+            writer.addExport("a", "Engine.Texture", null, new byte[4], 0);
+            fail[0] = true;
+            try {
+                writer.addExport("group.b", "Engine.Texture", null, new byte[4], 0);
+                fail();
+            } catch (UncheckedIOException ignore) {
+            }
+            fail[0] = false;
+            try {
+                writer.finish();
+                fail();
+            } catch (IllegalStateException ignore) {
+            }
+        }
+
+        memory.setPosition(12);
+        assertEquals(0, memory.readInt());
+    }
+
+    @Test
+    public void unnamedPackage() {
+        try (UnrealPackage up = UnrealPackage.create(new RandomAccessMemory(null, UnrealPackage.getDefaultCharset()), 123, 0)) {
+            up.addExportEntry("a", "Engine.Texture", null, new byte[4], 0);
+
+            assertTrue(up.importReferenceByName("Engine.Texture", c -> true) != 0);
+            UnrealPackage.ExportEntry entry = up.getExportTable().get(0);
+            assertEquals("null.a", entry.getObjectFullName());
+            assertEquals(entry.getObjectReference(), up.exportReferenceByName("null.a", c -> true));
+            assertEquals(entry.getObjectReference(), up.exportReferenceByName("a", c -> true));
+        }
+    }
 }